@@ -0,0 +1,71 @@
+package http_datastructures;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares HTTPDate with the way dates used to be handled: a new DateTimeFormatter for every Date header,
+ * and three formatters tried in turn, with an exception for every format that did not match, for if-modified-since.
+ * The dates are parsed in each of the three formats a client may send.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HTTPDateBenchmark {
+
+    /**
+     * A date in one of the formats.
+     */
+    @State(Scope.Thread)
+    public static class Input {
+        @Param({"Sun, 06 Nov 1994 08:49:37 GMT", "Sunday, 06-Nov-94 08:49:37 GMT", "Sun Nov  6 08:49:37 1994"})
+        public String date;
+    }
+
+    @Benchmark
+    public String legacyFormat() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+        return ZonedDateTime.now(ZoneId.of("GMT")).format(formatter);
+    }
+
+    @Benchmark
+    public byte[] format() {
+        return HTTPDate.now();
+    }
+
+    @Benchmark
+    public long legacyParse(Input input) {
+        String date = input.date;
+        DateTimeFormatter formatter1 = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+        DateTimeFormatter formatter2 = DateTimeFormatter.ofPattern("EEEE, dd-MMM-yy HH:mm:ss zzz", Locale.ENGLISH);
+        DateTimeFormatter formatter3 = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy", Locale.ENGLISH);
+        try {
+            return LocalDateTime.parse(date, formatter1).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e1) {
+            try {
+                return LocalDateTime.parse(date, formatter2).toEpochSecond(ZoneOffset.UTC);
+            } catch (DateTimeParseException e2) {
+                try {
+                    return LocalDateTime.parse(date, formatter3).toEpochSecond(ZoneOffset.UTC);
+                } catch (DateTimeParseException e3) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long parse(Input input) {
+        return HTTPDate.parse(input.date);
+    }
+}
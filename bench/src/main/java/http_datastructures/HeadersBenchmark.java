@@ -0,0 +1,78 @@
+package http_datastructures;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a request and looking up the headers the server reads for it, with the headers kept in the
+ * Headers table, with the way they used to be kept: a string per name and value from the line, in a HashMap keyed by
+ * the lowercased name, lowercasing the name again on every lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HeadersBenchmark {
+
+    private static final String HEADERS = "Host: localhost:8000\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Referer: http://localhost:8000/\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "If-Modified-Since: Fri, 23 Mar 2018 10:00:00 GMT\r\n" +
+            "Cache-Control: max-age=0\r\n";
+
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" + HEADERS + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    // The headers looked up for a GET request of a static file.
+    private static final String[] LOOKUPS = {"transfer-encoding", "content-length", "Host", "Connection",
+            "Accept-Encoding", "If-Match", "If-Unmodified-Since", "If-None-Match", "If-Modified-Since", "Range"};
+
+    private RequestParser parser;
+
+    @Setup
+    public void setup() {
+        parser = new RequestParser(8192, 100);
+    }
+
+    @Benchmark
+    public int legacy() {
+        Map<String, String> headers = new HashMap<>();
+        for (String line : HEADERS.split("\r\n")) {
+            String[] parts = line.split(":", 2);
+            headers.put(parts[0].toLowerCase(), parts[1].trim());
+        }
+        int found = 0;
+        for (String name : LOOKUPS) {
+            if (headers.get(name.toLowerCase()) != null)
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int parseAndLookUp() throws Throwable {
+        Request request = parser.parse(ByteBuffer.wrap(REQUEST));
+        int found = 0;
+        for (String name : LOOKUPS) {
+            if (request.getHeader(name) != null)
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Request parseOnly() throws Throwable {
+        return parser.parse(ByteBuffer.wrap(REQUEST));
+    }
+}
@@ -0,0 +1,57 @@
+package http_datastructures;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte oriented RequestParser with the way requests used to be read: one byte at a time
+ * into a StringBuilder, checking for the end of the headers after every byte, then parsed with Request(String).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" +
+            "Host: localhost:8000\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Referer: http://localhost:8000/\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "If-Modified-Since: Fri, 23 Mar 2018 10:00:00 GMT\r\n" +
+            "Cache-Control: max-age=0\r\n" +
+            "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private RequestParser parser;
+
+    @Setup
+    public void setup() {
+        parser = new RequestParser(8192, 100);
+    }
+
+    @Benchmark
+    public Request legacy() throws Throwable {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(REQUEST));
+        StringBuilder requestBuffer = new StringBuilder();
+        while (!requestBuffer.toString().endsWith("\r\n\r\n")) {
+            requestBuffer.append((char) in.readByte());
+        }
+        return new Request(requestBuffer.toString());
+    }
+
+    @Benchmark
+    public Request requestParser() throws Throwable {
+        return parser.parse(ByteBuffer.wrap(REQUEST));
+    }
+}
@@ -0,0 +1,110 @@
+package http_server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and allocation per request of a keep-alive connection in a steady state: a GET request for a
+ * cached static file is parsed, answered and written out through the context of the connection, as the server
+ * engines do, and the allocation per request as reported by the {@link AllocationMonitor}, which is printed at the
+ * end of every fork. Run it from the directory holding public_html.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ConnectionContextBenchmark {
+
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n" +
+            "Host: localhost:8000\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Connection: keep-alive\r\n" +
+            "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private Path log;
+    private AllocationMonitor allocations;
+    private AccessLog accessLog;
+    private ConnectionContext context;
+    private GatheringByteChannel channel;
+    private ByteBuffer input;
+
+    @Setup
+    public void setup() throws Throwable {
+        // The access log is written to a scratch file, the entries are formatted on its own thread.
+        log = Files.createTempFile("access", ".log");
+        Properties properties = new Properties();
+        properties.setProperty("http.debug.allocations", "true");
+        properties.setProperty("http.accessLog.path", log.toString());
+        properties.setProperty("http.keepAlive.maxRequests", "0");
+        ServerConfig config = new ServerConfig(properties);
+        ServerMetrics metrics = new ServerMetrics(config);
+        allocations = metrics.getAllocations();
+        accessLog = new AccessLog(config, metrics);
+        accessLog.start();
+        context = new ConnectionContext(new RequestDispatcher(config), config, metrics, accessLog,
+                "127.0.0.1", new ConnectionManager(config));
+        channel = new DiscardingChannel();
+        input = ByteBuffer.wrap(REQUEST);
+    }
+
+    @Benchmark
+    public boolean keepAliveGet() throws Throwable {
+        input.rewind();
+        context.processRequest(input);
+        return context.getOutput().flush(channel);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        context.close();
+        accessLog.close();
+        Files.delete(log);
+        // The debug metric of the server, which includes handing the entry to the access log.
+        System.out.println("AllocationMonitor: " + allocations.getAllocatedBytesPerRequest() + " B/request over "
+                + allocations.getRequests() + " requests");
+    }
+
+    private static class DiscardingChannel implements GatheringByteChannel {
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += srcs[i].remaining();
+                srcs[i].position(srcs[i].limit());
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package http_server;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * End to end load test: starts the server in this JVM on a loopback port and runs scenarios against it with
+ * blocking client connections, one thread per connection. For every scenario it reports the requests per second,
+ * the 50th and 99th percentile latency, and the rate and amount per request at which the server threads allocate.
+ * Run it from the directory holding public_html, with the server settings as system properties, e.g.
+ * {@code java -Dhttp.engine=NIO -cp bench/target/benchmarks.jar http_server.LoadGenerator keepalive pipelined}.
+ * Without arguments all scenarios are run. Other settings:
+ * bench.port (18080), bench.warmupMillis (2000), bench.measureMillis (5000), bench.connections (16),
+ * bench.manyConnections (256), bench.pipeline (16) and bench.uploadSize (1048576).
+ */
+public class LoadGenerator {
+
+    private static final int PORT = Integer.getInteger("bench.port", 18080);
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmupMillis", 2000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measureMillis", 5000);
+    private static final int CONNECTIONS = Integer.getInteger("bench.connections", 16);
+    private static final int MANY_CONNECTIONS = Integer.getInteger("bench.manyConnections", 256);
+    private static final int PIPELINE = Integer.getInteger("bench.pipeline", 16);
+    private static final int UPLOAD_SIZE = Integer.getInteger("bench.uploadSize", 1024 * 1024);
+
+    // The results are printed here, the server logs every request to System.out, which is discarded.
+    private static final PrintStream RESULTS = System.out;
+
+    /**
+     * The kinds of load that can be generated.
+     */
+    enum Scenario {
+        /** Small file requests, one at a time, on keep-alive connections. */
+        KEEPALIVE,
+        /** Small file requests sent in batches without waiting for the responses. */
+        PIPELINED,
+        /** Small file requests on many more keep-alive connections than there are cores. */
+        MANY,
+        /** A new connection for every small file request. */
+        CLOSE,
+        /** Requests for a file too large to be cached in memory. */
+        LARGEFILE,
+        /** PUT requests uploading a body, to a file per connection. */
+        UPLOAD
+    }
+
+    public static void main(String[] args) throws Throwable {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (String arg : args) {
+            scenarios.add(Scenario.valueOf(arg.toUpperCase()));
+        }
+        if (scenarios.isEmpty())
+            scenarios.addAll(Arrays.asList(Scenario.values()));
+
+        startServer();
+        RESULTS.printf("%-10s %6s %12s %10s %10s %12s %12s %8s%n", "scenario", "conns", "req/s", "p50 us", "p99 us",
+                "alloc MB/s", "alloc B/req", "errors");
+        for (Scenario scenario : scenarios) {
+            run(scenario, WARMUP_MILLIS, false);
+            run(scenario, MEASURE_MILLIS, true);
+        }
+        for (int i = 0; i < MANY_CONNECTIONS; i++) {
+            Files.deleteIfExists(uploadPath(i));
+        }
+        System.exit(0);
+    }
+
+    private static void startServer() throws InterruptedException {
+        System.setProperty("http.port", String.valueOf(PORT));
+        // The clients do not reconnect in the middle of a pipelined batch, so do not close connections after a
+        // number of requests unless asked to.
+        if (System.getProperty("http.keepAlive.maxRequests") == null)
+            System.setProperty("http.keepAlive.maxRequests", "0");
+        // Keep the per request logging of the server out of the numbers and the results.
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        Thread server = new Thread(() -> {
+            try {
+                TCPServer.main(new String[0]);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server");
+        server.setDaemon(true);
+        server.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw new IllegalStateException("The server did not start on port " + PORT);
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void run(Scenario scenario, long millis, boolean report) throws Throwable {
+        int connections = scenario == Scenario.MANY ? MANY_CONNECTIONS : CONNECTIONS;
+        Client[] clients = new Client[connections];
+        CountDownLatch done = new CountDownLatch(connections);
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new Client(scenario, i, deadline, done);
+        }
+
+        long allocatedBefore = serverAllocatedBytes();
+        long start = System.nanoTime();
+        for (Client client : clients) {
+            client.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        long allocated = serverAllocatedBytes() - allocatedBefore;
+        if (!report)
+            return;
+
+        int count = 0;
+        long errors = 0;
+        for (Client client : clients) {
+            count += client.count;
+            errors += client.errors;
+        }
+        long[] latencies = new long[count];
+        int offset = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+            offset += client.count;
+        }
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        RESULTS.printf("%-10s %6d %12.0f %10.0f %10.0f %12.1f %12.0f %8d%n", scenario.name().toLowerCase(),
+                connections, count / seconds, percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3,
+                allocated / seconds / (1024 * 1024), count == 0 ? 0.0 : (double) allocated / count, errors);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    /**
+     * Sum the bytes allocated so far by the live threads of the server, whose names start with "http-".
+     * Threads that ended during a run are not counted, so the pool and NIO engines give the most accurate numbers.
+     */
+    private static long serverAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+        long total = 0;
+        for (ThreadInfo info : bean.getThreadInfo(bean.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("http-")) {
+                long bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(info.getThreadId());
+                if (bytes > 0)
+                    total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static Path uploadPath(int client) {
+        return Paths.get(System.getProperty("user.dir"), "public_html", ".bench-upload-" + client + ".bin");
+    }
+
+    /**
+     * A client connection sending requests until the deadline, recording the latency of every response.
+     */
+    private static class Client extends Thread {
+
+        private final Scenario scenario;
+        private final long deadline;
+        private final CountDownLatch done;
+        private final byte[] request;
+        private final byte[] scratch = new byte[64 * 1024];
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(Scenario scenario, int index, long deadline, CountDownLatch done) {
+            super("load-client-" + index);
+            setDaemon(true);
+            this.scenario = scenario;
+            this.deadline = deadline;
+            this.done = done;
+            this.request = request(scenario, index);
+        }
+
+        private static byte[] request(Scenario scenario, int index) {
+            String head;
+            switch (scenario) {
+                case CLOSE:
+                    head = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+                    break;
+                case LARGEFILE:
+                    head = "GET /image.png HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                    break;
+                case UPLOAD:
+                    head = "PUT /" + uploadPath(index).getFileName() + " HTTP/1.1\r\nHost: localhost\r\n" +
+                            "Content-Length: " + UPLOAD_SIZE + "\r\n\r\n";
+                    byte[] bytes = head.getBytes(StandardCharsets.ISO_8859_1);
+                    return Arrays.copyOf(bytes, bytes.length + UPLOAD_SIZE);
+                default:
+                    head = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n";
+                    break;
+            }
+            byte[] single = head.getBytes(StandardCharsets.ISO_8859_1);
+            if (scenario != Scenario.PIPELINED)
+                return single;
+            byte[] batch = new byte[single.length * PIPELINE];
+            for (int i = 0; i < PIPELINE; i++) {
+                System.arraycopy(single, 0, batch, i * single.length, single.length);
+            }
+            return batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        if (socket == null)
+                            connect();
+                        long start = System.nanoTime();
+                        out.write(request);
+                        out.flush();
+                        int responses = scenario == Scenario.PIPELINED ? PIPELINE : 1;
+                        for (int i = 0; i < responses; i++) {
+                            readResponse();
+                            record(System.nanoTime() - start);
+                        }
+                        if (scenario == Scenario.CLOSE)
+                            disconnect();
+                    } catch (IOException e) {
+                        errors++;
+                        disconnect();
+                    }
+                }
+            } finally {
+                disconnect();
+                done.countDown();
+            }
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        private void disconnect() {
+            if (socket == null)
+                return;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to clean up.
+            }
+            socket = null;
+        }
+
+        /**
+         * Read the head of a response, then skip its body, which must have a content-length.
+         */
+        private void readResponse() throws IOException {
+            long contentLength = -1;
+            boolean statusLine = true;
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                int b = in.read();
+                if (b < 0)
+                    throw new EOFException();
+                if (b != '\n') {
+                    if (b != '\r')
+                        line.append((char) b);
+                    continue;
+                }
+                if (line.length() == 0)
+                    break;
+                if (statusLine) {
+                    if (!line.toString().startsWith("HTTP/1.1 2") && !line.toString().startsWith("HTTP/1.1 304"))
+                        throw new IOException("Unexpected response: " + line);
+                    statusLine = false;
+                } else if (line.length() > 15 && line.substring(0, 15).equalsIgnoreCase("content-length:")) {
+                    contentLength = Long.parseLong(line.substring(15).trim());
+                }
+                line.setLength(0);
+            }
+            if (contentLength < 0)
+                throw new IOException("Response without content-length");
+            while (contentLength > 0) {
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, contentLength));
+                if (read < 0)
+                    throw new EOFException();
+                contentLength -= read;
+            }
+        }
+
+        private void record(long latency) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latency;
+        }
+    }
+}
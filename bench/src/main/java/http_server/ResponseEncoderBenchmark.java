@@ -0,0 +1,63 @@
+package http_server;
+
+import http_datastructures.HTTPVersion;
+import http_datastructures.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ResponseEncoder with the way response heads used to be encoded: a new date formatter and
+ * the date added as header, then Response.toString() converted to bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ResponseEncoderBenchmark {
+
+    private ResponseEncoder encoder;
+
+    @Setup
+    public void setup() {
+        encoder = new ResponseEncoder();
+    }
+
+    @Benchmark
+    public byte[] legacy() {
+        Response response = response();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+        response.addHeader("Date", ZonedDateTime.now(ZoneId.of("GMT")).format(formatter));
+        return response.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public int responseEncoder() {
+        ByteBuffer encoded = encoder.encode(response());
+        int length = encoded.remaining();
+        ResponseEncoder.release(encoded);
+        return length;
+    }
+
+    /**
+     * The cost of building the response itself, to subtract from the numbers above.
+     */
+    @Benchmark
+    public Response baseline() {
+        return response();
+    }
+
+    private static Response response() {
+        Response response = new Response(HTTPVersion.HTTP11, 404, "Not Found", "The requested file could not be found on this server.\r\n", "text/plain");
+        response.addHeader("Connection", "keep-alive");
+        return response;
+    }
+}
@@ -0,0 +1,79 @@
+package http_server;
+
+import http_datastructures.Response;
+import http_datastructures.RequestType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares finding the route of a request in the Router with trying the patterns of all routes one by one, as
+ * regular expressions, for a few hundred routes with parameters and a wildcard for the static files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RouterBenchmark {
+
+    private static final String[] RESOURCES = {"users", "orders", "products", "invoices", "customers", "shipments",
+            "reviews", "carts", "payments", "refunds", "accounts", "sessions", "tokens", "reports", "events"};
+
+    @Param({"/api/v3/shipments/1234/items/56", "/api/v1/users", "/api/v2/reports/2019/history",
+            "/pages/section29/about", "/images/logo.png", "/api/v2/tokens/search"})
+    public String path;
+
+    private Router router;
+    private List<Pattern> regexes;
+
+    @Setup
+    public void setup() {
+        List<String> patterns = new ArrayList<>();
+        for (int version = 1; version <= 3; version++) {
+            for (String resource : RESOURCES) {
+                String base = "/api/v" + version + "/" + resource;
+                patterns.add(base);
+                patterns.add(base + "/search");
+                patterns.add(base + "/:id");
+                patterns.add(base + "/:id/history");
+                patterns.add(base + "/:id/items");
+                patterns.add(base + "/:id/items/:item");
+            }
+        }
+        for (int i = 0; i < 30; i++) {
+            patterns.add("/pages/section" + i + "/index");
+            patterns.add("/pages/section" + i + "/about");
+        }
+        patterns.add("/*");
+
+        RequestHandler handler = (request, parameters) -> new Response(request.getVersion(), 200, "OK");
+        router = new Router();
+        regexes = new ArrayList<>();
+        for (String pattern : patterns) {
+            router.add(RequestType.GET, pattern, handler);
+            regexes.add(Pattern.compile(pattern.replaceAll(":[^/]+", "([^/]+)").replace("/*", "/(.*)")));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> router() {
+        return router.find(path).getParameters();
+    }
+
+    @Benchmark
+    public int linearScan() {
+        for (Pattern regex : regexes) {
+            Matcher matcher = regex.matcher(path);
+            if (matcher.matches())
+                return matcher.groupCount();
+        }
+        return -1;
+    }
+}
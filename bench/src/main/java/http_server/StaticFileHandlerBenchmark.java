@@ -0,0 +1,98 @@
+package http_server;
+
+import http_datastructures.HTTPVersion;
+import http_datastructures.Request;
+import http_datastructures.RequestType;
+import http_datastructures.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving static files without the network: fetchPage for a small file and a larger file from the cache,
+ * for a file that is too large for the cache, and for a conditional request answered with 304, as well as
+ * parseExtension. Run it from the directory holding public_html.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StaticFileHandlerBenchmark {
+
+    /**
+     * A path for parseExtension.
+     */
+    @State(Scope.Thread)
+    public static class Path {
+        @Param({"index.html", "images/cat.jpg", "script.min.js", "README"})
+        public String path;
+    }
+
+    private StaticFileHandler handler;
+    private File index;
+    private File cat;
+    private File image;
+    private Request request;
+    private Request conditional;
+
+    @Setup
+    public void setup() throws Throwable {
+        handler = new StaticFileHandler(new ServerConfig(new Properties()));
+        File root = new File(System.getProperty("user.dir"), "public_html");
+        index = new File(root, "index.html");
+        cat = new File(root, "cat.jpg");
+        image = new File(root, "image.png");
+        request = request();
+        conditional = request();
+        conditional.addHeader("if-none-match", handler.fetchPage(request, index, false).getHeader("etag"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.close();
+    }
+
+    @Benchmark
+    public Response cachedIndex() throws Throwable {
+        return fetch(request, index);
+    }
+
+    @Benchmark
+    public Response cachedImage() throws Throwable {
+        return fetch(request, cat);
+    }
+
+    @Benchmark
+    public Response uncachedImage() throws Throwable {
+        return fetch(request, image);
+    }
+
+    @Benchmark
+    public Response notModified() throws Throwable {
+        return fetch(conditional, index);
+    }
+
+    @Benchmark
+    public String parseExtension(Path path) {
+        return handler.parseExtension(path.path);
+    }
+
+    private Response fetch(Request request, File file) throws Throwable {
+        Response response = handler.fetchPage(request, file, false);
+        // Release a file or mapping the response would have sent.
+        if (response.getBody() != null)
+            response.getBody().close();
+        return response;
+    }
+
+    private static Request request() {
+        Request request = new Request(RequestType.GET, "/index.html", HTTPVersion.HTTP11);
+        request.addHeader("host", "localhost:8000");
+        request.addHeader("accept-encoding", "gzip, deflate");
+        return request;
+    }
+}
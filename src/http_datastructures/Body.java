@@ -0,0 +1,49 @@
+package http_datastructures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The body of a HTTP message that is written straight to the connection instead of being held as a string,
+ * e.g. the contents of a file.
+ */
+public abstract class Body implements Closeable {
+
+    /**
+     * Get the length of this body.
+     * @return The number of bytes in this body, or -1 if this is not known in advance.
+     */
+    public abstract long length();
+
+    /**
+     * Write (part of) this body to the given channel, starting at the given position within this body.
+     * A blocking channel accepts as much as is offered, a non-blocking channel may accept less, in which case
+     * this method should be called again with the position advanced by the returned count.
+     * A body of unknown length is written from start to end only once, and signals its end by returning -1.
+     * @param channel The channel to write to.
+     * @param position The offset within this body of the first byte to write.
+     * @return The number of bytes that were written, or -1 if this body has an unknown length and has been
+     * written completely.
+     * @throws IOException Reading the body or writing to the channel failed.
+     */
+    public abstract long writeTo(WritableByteChannel channel, long position) throws IOException;
+
+    /**
+     * Get the contents of this body as a buffer, if it is held in memory. Writers can then send the body
+     * in a single gathering write together with the headers.
+     * @return A new buffer holding the whole body, or null if this body is not held in memory.
+     */
+    public ByteBuffer asByteBuffer() {
+        return null;
+    }
+
+    /**
+     * Release the resources held by this body. The body can not be written after it has been closed.
+     * @throws IOException Releasing the resources failed.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+}
@@ -0,0 +1,42 @@
+package http_datastructures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the body of a request while it is being parsed, so the body does not have to be held in memory.
+ * The bytes are handed over in pieces as they arrive on the connection, chunked transfer coding already removed.
+ * A sink does not throw when it fails to store the body: the rest of the body still has to be read from the
+ * connection, so a sink remembers the failure and discards what follows instead.
+ */
+public interface BodySink {
+
+    /**
+     * Chooses where the body of a request goes, once its headers have been parsed.
+     */
+    interface Factory {
+
+        /**
+         * Open a sink for the body of the given request.
+         * @param request The request, with its request line and headers.
+         * @return The sink to write the body to, or null to keep the body in memory as the content of the request.
+         */
+        BodySink open(Request request);
+    }
+
+    /**
+     * Store the next part of the body.
+     * @param data The bytes to store. All remaining bytes are consumed.
+     */
+    void write(ByteBuffer data);
+
+    /**
+     * Called when the whole body has been received.
+     */
+    void finish();
+
+    /**
+     * Called when the body will not be used, e.g. because the connection was closed before it was complete,
+     * or because the request has been answered without it. Releases anything the sink holds.
+     */
+    void abort();
+}
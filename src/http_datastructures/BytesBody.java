@@ -0,0 +1,47 @@
+package http_datastructures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A body held in memory. The buffer is never modified, so a single body can be shared by many responses
+ * and written by many threads at once.
+ */
+public class BytesBody extends Body {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Create a body holding the given bytes.
+     * @param bytes The contents of the body. The array must not be modified afterwards.
+     */
+    public BytesBody(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Create a body holding the remaining bytes of the given buffer.
+     * @param buffer The contents of the body. The buffer must not be modified afterwards.
+     */
+    public BytesBody(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public long length() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) position);
+        return channel.write(view);
+    }
+
+    @Override
+    public ByteBuffer asByteBuffer() {
+        return buffer.duplicate();
+    }
+}
@@ -0,0 +1,71 @@
+package http_datastructures;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A body made of other bodies of known length, sent one after the other, e.g. the parts of a multipart body.
+ * Each part is written in its own way, so parts of files are still transferred without copying.
+ */
+public class CompositeBody extends Body {
+
+    private final Body[] parts;
+    // The position in this body at which each part starts.
+    private final long[] starts;
+    private final long length;
+
+    /**
+     * Create a body from the given parts.
+     * @param parts The parts, in order. Every part must have a known length.
+     */
+    public CompositeBody(List<Body> parts) {
+        this.parts = parts.toArray(new Body[0]);
+        this.starts = new long[this.parts.length];
+        long total = 0;
+        for (int i = 0; i < this.parts.length; i++) {
+            if (this.parts[i].length() < 0)
+                throw new IllegalArgumentException("The parts of a composite body must have a known length.");
+            starts[i] = total;
+            total += this.parts[i].length();
+        }
+        this.length = total;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        long written = 0;
+        for (int i = 0; i < parts.length && position < length; i++) {
+            long end = starts[i] + parts[i].length();
+            if (position >= end)
+                continue;
+            while (position < end) {
+                long count = parts[i].writeTo(channel, position - starts[i]);
+                if (count <= 0)
+                    return written;
+                written += count;
+                position += count;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Body part : parts) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,76 @@
+package http_datastructures;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A body that holds the contents of a file, or a part of it. The file is transferred to the connection with
+ * {@link FileChannel#transferTo}, which lets the operating system copy it to the socket without
+ * passing the bytes through the heap.
+ */
+public class FileBody extends Body {
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+    private FileChannel fileChannel;
+
+    /**
+     * Create a body for the given file.
+     * @param path The file to send.
+     * @param length The size of the file, as found in its metadata.
+     */
+    public FileBody(Path path, long length) {
+        this(path, 0, length);
+    }
+
+    /**
+     * Create a body for a part of the given file.
+     * @param path The file to send a part of.
+     * @param offset The position in the file of the first byte to send.
+     * @param length The number of bytes to send.
+     */
+    public FileBody(Path path, long offset, long length) {
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Get the file this body sends.
+     * @return The path of the file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        if (fileChannel == null)
+            fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+
+        long written = fileChannel.transferTo(offset + position, length - position, channel);
+        if (written == 0 && position < length && offset + position >= fileChannel.size()) {
+            // The file was truncated after we announced its length, we can not complete the response.
+            throw new EOFException("File " + path + " shrunk while it was being sent.");
+        }
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+}
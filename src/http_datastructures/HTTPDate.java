@@ -0,0 +1,228 @@
+package http_datastructures;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formatting and parsing of dates in HTTP headers (RFC 7231, section 7.1.1.1).
+ * The current date is formatted once a second by a background thread, so responses can copy it as bytes.
+ * Parsing accepts the three formats HTTP allows without throwing exceptions for the formats it has to try.
+ */
+public final class HTTPDate {
+
+    private static final String[] DAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    private static final String[] LONG_DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private static volatile byte[] current = format(System.currentTimeMillis()).getBytes(StandardCharsets.ISO_8859_1);
+
+    static {
+        Thread ticker = new Thread(HTTPDate::tick, "http-date");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private HTTPDate() {
+    }
+
+    /**
+     * Get the current date in the preferred HTTP date format, e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+     * The value is refreshed once a second.
+     * @return The current date as ASCII bytes. The array must not be modified.
+     */
+    public static byte[] now() {
+        return current;
+    }
+
+    /**
+     * Refresh the current date at the start of every second.
+     */
+    private static void tick() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            current = format(now).getBytes(StandardCharsets.ISO_8859_1);
+            try {
+                Thread.sleep(1000 - now % 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Format a point in time in the preferred HTTP date format, e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+     * @param epochMillis The point in time, in milliseconds since the epoch.
+     * @return The formatted date.
+     */
+    public static String format(long epochMillis) {
+        long epochSeconds = Math.floorDiv(epochMillis, 1000);
+        long days = Math.floorDiv(epochSeconds, 86400);
+        int secondOfDay = Math.floorMod(epochSeconds, 86400);
+
+        // Convert days since the epoch to a civil date (H. Hinnant's days_from_civil, inverted).
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        // 1970-01-01 was a Thursday.
+        int dayOfWeek = Math.floorMod(days + 3, 7);
+
+        StringBuilder date = new StringBuilder(29);
+        date.append(DAYS[dayOfWeek]).append(", ");
+        twoDigits(date, day).append(' ').append(MONTHS[month - 1]).append(' ').append(year).append(' ');
+        twoDigits(date, secondOfDay / 3600).append(':');
+        twoDigits(date, secondOfDay / 60 % 60).append(':');
+        twoDigits(date, secondOfDay % 60).append(" GMT");
+        return date.toString();
+    }
+
+    private static StringBuilder twoDigits(StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Parse a HTTP date in any of the three formats HTTP allows:
+     * "Sun, 06 Nov 1994 08:49:37 GMT" (IMF-fixdate), "Sunday, 06-Nov-94 08:49:37 GMT" (RFC 850)
+     * and "Sun Nov  6 08:49:37 1994" (asctime).
+     * @param date The date to parse.
+     * @return The point in time, in seconds since the epoch, or -1 if the date is not valid.
+     */
+    public static long parse(String date) {
+        if (date == null)
+            return -1;
+        date = date.trim();
+        int comma = date.indexOf(',');
+        if (comma == 3)
+            return parseFixdate(date);
+        if (comma > 3)
+            return parseRfc850(date, comma);
+        return parseAsctime(date);
+    }
+
+    /**
+     * Parse "Sun, 06 Nov 1994 08:49:37 GMT".
+     */
+    private static long parseFixdate(String date) {
+        if (date.length() != 29 || indexOf(DAYS, date, 0) < 0 || date.charAt(4) != ' ' || date.charAt(7) != ' '
+                || date.charAt(11) != ' ' || date.charAt(16) != ' ' || date.charAt(25) != ' ' || !isGMT(date, 26))
+            return -1;
+        int day = number(date, 5, 2);
+        int month = indexOf(MONTHS, date, 8) + 1;
+        int year = number(date, 12, 4);
+        return toEpochSeconds(year, month, day, date, 17);
+    }
+
+    /**
+     * Parse "Sunday, 06-Nov-94 08:49:37 GMT".
+     */
+    private static long parseRfc850(String date, int comma) {
+        if (date.length() != comma + 24 || !isLongDay(date, comma) || date.charAt(comma + 1) != ' '
+                || date.charAt(comma + 4) != '-' || date.charAt(comma + 8) != '-' || date.charAt(comma + 11) != ' '
+                || date.charAt(comma + 20) != ' ' || !isGMT(date, comma + 21))
+            return -1;
+        int day = number(date, comma + 2, 2);
+        int month = indexOf(MONTHS, date, comma + 5) + 1;
+        int year = number(date, comma + 9, 2);
+        if (year < 0)
+            return -1;
+        // Two digit years that would be more than 50 years in the future are in the past century.
+        int currentYear = (int) (System.currentTimeMillis() / 31556952000L) + 1970;
+        year += currentYear / 100 * 100;
+        if (year > currentYear + 50)
+            year -= 100;
+        return toEpochSeconds(year, month, day, date, comma + 12);
+    }
+
+    /**
+     * Parse "Sun Nov  6 08:49:37 1994".
+     */
+    private static long parseAsctime(String date) {
+        if (date.length() != 24 || indexOf(DAYS, date, 0) < 0 || date.charAt(3) != ' ' || date.charAt(7) != ' '
+                || date.charAt(10) != ' ' || date.charAt(19) != ' ')
+            return -1;
+        int month = indexOf(MONTHS, date, 4) + 1;
+        int day = date.charAt(8) == ' ' ? number(date, 9, 1) : number(date, 8, 2);
+        int year = number(date, 20, 4);
+        return toEpochSeconds(year, month, day, date, 11);
+    }
+
+    /**
+     * Combine a date with the "HH:mm:ss" time at the given offset.
+     */
+    private static long toEpochSeconds(int year, int month, int day, String date, int timeOffset) {
+        if (date.charAt(timeOffset + 2) != ':' || date.charAt(timeOffset + 5) != ':')
+            return -1;
+        int hour = number(date, timeOffset, 2);
+        int minute = number(date, timeOffset + 3, 2);
+        int second = number(date, timeOffset + 6, 2);
+        if (year < 0 || month < 1 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60)
+            return -1;
+
+        // Days since the epoch for a civil date (H. Hinnant's days_from_civil).
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return days * 86400 + hour * 3600 + minute * 60 + second;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Parse a number of the given amount of digits.
+     * @return The number, or -1 if not all characters are digits.
+     */
+    private static int number(String s, int offset, int digits) {
+        int value = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Find which of the three letter names is found at the given offset.
+     * @return The index of the name, or -1 if none of them is.
+     */
+    private static int indexOf(String[] names, String s, int offset) {
+        for (int i = 0; i < names.length; i++) {
+            if (s.regionMatches(offset, names[i], 0, 3))
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean isLongDay(String s, int length) {
+        for (String day : LONG_DAYS) {
+            if (day.length() == length && s.regionMatches(0, day, 0, length))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isGMT(String s, int offset) {
+        return s.length() == offset + 3 && (s.regionMatches(offset, "GMT", 0, 3) || s.regionMatches(offset, "UTC", 0, 3));
+    }
+}
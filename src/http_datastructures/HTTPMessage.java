@@ -1,56 +1,85 @@
 package http_datastructures;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Represents a transaction in the HTTP protocol.
  * Support for different versions, headers and contents.
+ * The body of a message is always held as bytes, in memory or e.g. in a file, so binary content passes through
+ * unchanged. The content string is a view of a body held in memory, decoded as UTF-8 when it is asked for.
  */
 public class HTTPMessage {
 
+    // The body as a string, or null if it has not been decoded yet.
     private String content = "";
+    private Body body;
     HTTPVersion version;
-    private Map<String, String> headers = new HashMap<>();
+    private final Headers headers = new Headers();
     String firstLine;
 
     /**
      * Get the headers for this message.
-     * @return A map containing the headers for this message.
+     * @return The table with the header fields of this message, including repeated ones.
      */
-    public Map<String, String> getHeaders() {
+    public Headers getHeaders() {
         return headers;
     }
 
     /**
-     * Get the contents of this message.
-     * @return A string containing the contents of the body this message
+     * Get the contents of this message as a string.
+     * @return A string containing the contents of the body this message decoded as UTF-8, or an empty string if
+     * the message has no body or its body is not held in memory.
      */
     public String getContent() {
+        if (content == null) {
+            ByteBuffer bytes = body == null ? null : body.asByteBuffer();
+            content = bytes == null ? "" : StandardCharsets.UTF_8.decode(bytes).toString();
+        }
         return content;
     }
 
     /**
-     * Add a new header to this message.
+     * Get the contents of this message as bytes, if they are held in memory.
+     * @return A new buffer holding the body of this message, empty if the message has no body, or null if the
+     * body is not held in memory.
+     */
+    public ByteBuffer getContentBytes() {
+        if (body == null)
+            return ByteBuffer.allocate(0);
+        return body.asByteBuffer();
+    }
+
+    /**
+     * Get the body of this message, which is written straight to the connection.
+     * @return The body of this message, or null if it has no body.
+     */
+    public Body getBody() {
+        return body;
+    }
+
+    /**
+     * Add a new header to this message, replacing the header with the same name if there is one.
+     * Use {@link Headers#add} to add a header that occurs more than once.
      * @param key A string containing the left side of this header.
      * @param value A string containing the right side of this header.
      */
    public void addHeader(String key, String value){
-        this.headers.put(key.toLowerCase(), value);
+        this.headers.set(key, value);
    }
 
     /**
      * Retrieves the value of the header with the provided key.
      * @param key A string containing the left side of the requested header.
      * @return A string containing the right hand side of the requested header,
-     *         or null if this header does not exist in this message.
+     *         or null if this header does not exist in this message. The values of a repeated header are joined by ", ".
      */
    public String getHeader(String key){
-        return this.headers.get(key.toLowerCase());
+        return this.headers.get(key);
     }
 
     public boolean hasHeader(String key){
-        return this.headers.containsKey(key.toLowerCase());
+        return this.headers.contains(key);
     }
 
     /**
@@ -60,10 +89,10 @@ public class HTTPMessage {
      */
    public String headerString(){
         StringBuilder output = new StringBuilder();
-        for (Map.Entry<String, String> header : this.headers.entrySet()) {
-            output.append(header.getKey());
+        for (int i = 0; i < this.headers.size(); i++) {
+            output.append(this.headers.name(i));
             output.append(": ");
-            output.append(header.getValue());
+            output.append(this.headers.value(i));
             output.append("\r\n");
         }
         return output.toString();
@@ -108,8 +137,9 @@ public class HTTPMessage {
     HTTPMessage(String rawMessage) throws IllegalHeaderException {
         // Split headers and body
         String[] parts = rawMessage.split("\r\n\r\n", 2);
-        if (parts.length == 2){
+        if (parts.length == 2 && !parts[1].isEmpty()){
             this.content = parts[1];
+            this.body = new BytesBody(parts[1].getBytes(StandardCharsets.UTF_8));
         }
 
         String[] headerParts = parts[0].split("\r\n", 2);
@@ -124,33 +154,94 @@ public class HTTPMessage {
                     if (headers.size() == 0)
                         throw new IllegalHeaderException(line);
 
-                    headers.put(lastHeader.toLowerCase(), headers.get(lastHeader) + lineParts[0].trim());
+                    headers.set(lastHeader, headers.get(lastHeader) + lineParts[0].trim());
                 }
                 lastHeader = lineParts[1].trim();
-                headers.put(lineParts[0].toLowerCase(), lastHeader);
+                headers.set(lineParts[0], lastHeader);
             }
         }
     }
 
+    /**
+     * Empty this message so that it can be reused: no headers, no content and the given version.
+     * @param version The HTTPVersion used for the reused message.
+     */
+    void clear(HTTPVersion version) {
+        this.version = version;
+        this.content = "";
+        this.body = null;
+        this.headers.clear();
+        this.firstLine = null;
+    }
+
+    /**
+     * Set the content of this message as it was received, leaving the headers as they were received as well.
+     * @param content The body contents of this message. The array must not be modified afterwards.
+     */
+    void setParsedContent(byte[] content) {
+        this.content = null;
+        this.body = new BytesBody(content);
+    }
+
     /**
      * Return this HTTP message as a string.
      * @return This HTTP message as a HTTP transaction string.
      */
     @Override
     public String toString() {
-        return firstLine + "\r\n" + headerString() + "\r\n" + content;
+        return firstLine + "\r\n" + headerString() + "\r\n" + getContent();
     }
 
     /**
-     * Set the content of this message,
+     * Set the content of this message, encoded as UTF-8,
      * with the content-length header set to the length of the provided content
      * and the content-type header set to the provided contentType string.
      * @param content The new contents of the body of this message.
      * @param contentType The content-type of this body.
      */
     public void setContent(String content, String contentType) {
+        setContent(content.getBytes(StandardCharsets.UTF_8), contentType);
         this.content = content;
-        this.headers.put("content-length", String.valueOf(content.getBytes().length));
-        this.headers.put("content-type", contentType);
+    }
+
+    /**
+     * Set the content of this message,
+     * with the content-length header set to the length of the provided content
+     * and the content-type header set to the provided contentType string.
+     * @param content The new contents of the body of this message. The array must not be modified afterwards.
+     * @param contentType The content-type of this body.
+     */
+    public void setContent(byte[] content, String contentType) {
+        this.content = null;
+        this.body = content.length == 0 ? null : new BytesBody(content);
+        this.headers.remove("transfer-encoding");
+        this.headers.set("content-length", String.valueOf(content.length));
+        this.headers.set("content-type", contentType);
+    }
+
+    /**
+     * Set the body of this message to a body that is written straight to the connection,
+     * with the content-length header set to the length of the body (if it is known)
+     * and the content-type header set to the provided contentType string.
+     * A {@link StreamBody} of unknown length is sent with chunked transfer coding in HTTP/1.1; in HTTP/1.0 the
+     * connection has to be closed to mark its end.
+     * The content string of this message is a view of the body if it is held in memory, and empty otherwise.
+     * @param body The new body of this message.
+     * @param contentType The content-type of this body.
+     */
+    public void setBody(Body body, String contentType) {
+        this.content = null;
+        this.body = body;
+        if (body.length() >= 0) {
+            this.headers.remove("transfer-encoding");
+            this.headers.set("content-length", String.valueOf(body.length()));
+        } else {
+            this.headers.remove("content-length");
+            if (version == HTTPVersion.HTTP11 && body instanceof StreamBody) {
+                ((StreamBody) body).setChunked(true);
+                this.headers.set("transfer-encoding", "chunked");
+            }
+        }
+        this.headers.set("content-type", contentType);
     }
 }
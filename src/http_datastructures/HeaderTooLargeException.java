@@ -0,0 +1,7 @@
+package http_datastructures;
+
+/**
+ * The request line and headers of a request exceed the size or count limits of the server.
+ */
+public class HeaderTooLargeException extends Throwable {
+}
@@ -0,0 +1,386 @@
+package http_datastructures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The header fields of a message, in the order they were added, in parallel arrays.
+ * The fields of a parsed request are kept as slices of a single byte array with the bytes they were received as,
+ * and only turned into strings when they are asked for. Names are compared case insensitively without making
+ * lowercase copies, and the names of the well known headers below are resolved to an id, so that looking them
+ * up does not compare names at all. A field may occur more than once: all occurrences are kept.
+ * Headers are not thread safe.
+ */
+public final class Headers {
+
+    // Ids of the well known header names, the indexes of their names in KNOWN.
+    public static final int HOST = 0;
+    public static final int CONNECTION = 1;
+    public static final int CONTENT_LENGTH = 2;
+    public static final int CONTENT_TYPE = 3;
+    public static final int TRANSFER_ENCODING = 4;
+    public static final int CONTENT_ENCODING = 5;
+    public static final int ACCEPT_ENCODING = 6;
+    public static final int IF_MATCH = 7;
+    public static final int IF_NONE_MATCH = 8;
+    public static final int IF_MODIFIED_SINCE = 9;
+    public static final int IF_UNMODIFIED_SINCE = 10;
+    public static final int RANGE = 11;
+    public static final int IF_RANGE = 12;
+    public static final int ETAG = 13;
+    public static final int LAST_MODIFIED = 14;
+    public static final int CACHE_CONTROL = 15;
+    public static final int VARY = 16;
+    public static final int LOCATION = 17;
+
+    private static final String[] KNOWN = {"host", "connection", "content-length", "content-type",
+            "transfer-encoding", "content-encoding", "accept-encoding", "if-match", "if-none-match",
+            "if-modified-since", "if-unmodified-since", "range", "if-range", "etag", "last-modified",
+            "cache-control", "vary", "location"};
+
+    // Open addressing table from the hash of a lowercase name to its id + 1, 0 for empty slots.
+    private static final int[] KNOWN_SLOTS = new int[64];
+
+    static {
+        for (int id = 0; id < KNOWN.length; id++) {
+            int slot = hash(KNOWN[id]) & (KNOWN_SLOTS.length - 1);
+            while (KNOWN_SLOTS[slot] != 0)
+                slot = (slot + 1) & (KNOWN_SLOTS.length - 1);
+            KNOWN_SLOTS[slot] = id + 1;
+        }
+    }
+
+    private static final byte[] SPACE = {' '};
+
+    private int size;
+    // The names and values of the fields as strings, null until they are asked for if the field was parsed.
+    private String[] names = new String[8];
+    private String[] values = new String[8];
+    // The id of the name of each field, or -1 if it is not well known.
+    private int[] ids = new int[8];
+    // Where the name and value of each parsed field are in the bytes: name start, name end, value start, value end,
+    // or -1 for fields that were not parsed. Like the bytes, this is allocated when the first field is received.
+    private int[] slices;
+    // Allocated when the first field is received, messages that are built by the server do not need it.
+    private byte[] bytes;
+    private int bytesLength;
+    // The index of the first field with each well known name, or -1.
+    private final int[] first = new int[KNOWN.length];
+
+    /**
+     * Create an empty header table.
+     */
+    public Headers() {
+        Arrays.fill(first, -1);
+    }
+
+    /**
+     * Get the number of header fields, counting every occurrence of a repeated field.
+     * @return The number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the name of a header field.
+     * @param index The index of the field, in the order the fields were added.
+     * @return The name of the field. Well known names and the names of parsed fields are lowercase.
+     */
+    public String name(int index) {
+        if (names[index] == null) {
+            names[index] = ids[index] >= 0 ? KNOWN[ids[index]]
+                    : new String(bytes, slices[index * 4], slices[index * 4 + 1] - slices[index * 4], StandardCharsets.ISO_8859_1);
+        }
+        return names[index];
+    }
+
+    /**
+     * Get the value of a header field.
+     * @param index The index of the field, in the order the fields were added.
+     * @return The value of the field.
+     */
+    public String value(int index) {
+        if (values[index] == null && slices != null && slices[index * 4 + 3] >= 0) {
+            values[index] = new String(bytes, slices[index * 4 + 2], slices[index * 4 + 3] - slices[index * 4 + 2], StandardCharsets.ISO_8859_1);
+        }
+        return values[index];
+    }
+
+    /**
+     * Get the value of a header. The values of a header that occurs more than once are joined by ", ", as allowed
+     * for headers that hold a list (RFC 7230, section 3.2.2).
+     * @param name The name of the header, in any case.
+     * @return The value, or null if there is no such header.
+     */
+    public String get(String name) {
+        int id = idOf(name);
+        if (id >= 0)
+            return get(id);
+        String value = null;
+        for (int i = 0; i < size; i++) {
+            if (ids[i] < 0 && nameEquals(i, name))
+                value = value == null ? value(i) : value + ", " + value(i);
+        }
+        return value;
+    }
+
+    /**
+     * Get the value of a well known header, see {@link #get(String)}.
+     * @param id The id of the header, e.g. {@link #HOST}.
+     * @return The value, or null if there is no such header.
+     */
+    public String get(int id) {
+        int index = first[id];
+        if (index < 0)
+            return null;
+        StringBuilder joined = null;
+        for (int i = index + 1; i < size; i++) {
+            if (ids[i] == id) {
+                if (joined == null)
+                    joined = new StringBuilder(value(index));
+                joined.append(", ").append(value(i));
+            }
+        }
+        return joined == null ? value(index) : joined.toString();
+    }
+
+    /**
+     * Get the values of every occurrence of a header.
+     * @param name The name of the header, in any case.
+     * @return The values, in the order they were added, or an empty list if there is no such header.
+     */
+    public List<String> getAll(String name) {
+        int id = idOf(name);
+        List<String> all = Collections.emptyList();
+        for (int i = id >= 0 ? Math.max(first[id], 0) : 0; i < size; i++) {
+            if (id >= 0 ? ids[i] == id : ids[i] < 0 && nameEquals(i, name)) {
+                if (all.isEmpty())
+                    all = new ArrayList<>(2);
+                all.add(value(i));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Check whether there is a header with the given name.
+     * @param name The name of the header, in any case.
+     * @return true if the header occurs at least once.
+     */
+    public boolean contains(String name) {
+        int id = idOf(name);
+        if (id >= 0)
+            return first[id] >= 0;
+        for (int i = 0; i < size; i++) {
+            if (ids[i] < 0 && nameEquals(i, name))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a header field, keeping the fields with the same name that are already there.
+     * @param name The name of the header.
+     * @param value The value of the header.
+     */
+    public void add(String name, String value) {
+        int id = idOf(name);
+        int index = append(id);
+        names[index] = id >= 0 ? KNOWN[id] : name;
+        values[index] = value;
+        if (slices != null)
+            Arrays.fill(slices, index * 4, index * 4 + 4, -1);
+    }
+
+    /**
+     * Set a header, replacing all fields with the same name.
+     * @param name The name of the header.
+     * @param value The value of the header.
+     */
+    public void set(String name, String value) {
+        remove(name);
+        add(name, value);
+    }
+
+    /**
+     * Remove all fields with the given name.
+     * @param name The name of the header, in any case.
+     */
+    public void remove(String name) {
+        int id = idOf(name);
+        if (id >= 0 && first[id] < 0)
+            return;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (id >= 0 ? ids[i] == id : ids[i] < 0 && nameEquals(i, name))
+                continue;
+            if (kept != i) {
+                names[kept] = names[i];
+                values[kept] = values[i];
+                ids[kept] = ids[i];
+                if (slices != null)
+                    System.arraycopy(slices, i * 4, slices, kept * 4, 4);
+            }
+            kept++;
+        }
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+
+        Arrays.fill(first, -1);
+        for (int i = size - 1; i >= 0; i--) {
+            if (ids[i] >= 0)
+                first[ids[i]] = i;
+        }
+    }
+
+    /**
+     * Remove all fields. The arrays are kept, so they can be filled again without allocating.
+     */
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(first, -1);
+        size = 0;
+        bytesLength = 0;
+    }
+
+    /**
+     * Add a header field that was received, copying its name and value out of the given bytes.
+     * @param source The bytes holding the field.
+     * @param nameStart The index of the first byte of the name.
+     * @param nameEnd The index after the last byte of the name.
+     * @param valueStart The index of the first byte of the value.
+     * @param valueEnd The index after the last byte of the value.
+     */
+    void add(byte[] source, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (slices == null) {
+            slices = new int[ids.length * 4];
+            Arrays.fill(slices, -1);
+        }
+        int index = append(idOf(source, nameStart, nameEnd));
+        int offset = copy(source, nameStart, nameEnd);
+        slices[index * 4] = offset;
+        slices[index * 4 + 1] = offset + nameEnd - nameStart;
+        offset = copy(source, valueStart, valueEnd);
+        slices[index * 4 + 2] = offset;
+        slices[index * 4 + 3] = offset + valueEnd - valueStart;
+    }
+
+    /**
+     * Continue the value of the last field that was received, from a folded header line.
+     * The value gets a space and the given bytes appended.
+     * @param source The bytes holding the continuation, without surrounding whitespace.
+     * @param start The index of the first byte of the continuation.
+     * @param end The index after the last byte of the continuation.
+     * @return false if there is no received field to continue.
+     */
+    boolean extendLast(byte[] source, int start, int end) {
+        int index = size - 1;
+        // The value of the last received field is at the end of the bytes, so it can grow in place.
+        if (index < 0 || slices == null || slices[index * 4 + 3] != bytesLength)
+            return false;
+        copy(SPACE, 0, 1);
+        copy(source, start, end);
+        slices[index * 4 + 3] = bytesLength;
+        values[index] = null;
+        return true;
+    }
+
+    private int append(int id) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            if (slices != null) {
+                slices = Arrays.copyOf(slices, capacity * 4);
+                Arrays.fill(slices, size * 4, capacity * 4, -1);
+            }
+        }
+        int index = size++;
+        ids[index] = id;
+        if (id >= 0 && first[id] < 0)
+            first[id] = index;
+        return index;
+    }
+
+    private int copy(byte[] source, int start, int end) {
+        int length = end - start;
+        if (bytes == null)
+            bytes = new byte[Math.max(512, length)];
+        if (bytes.length - bytesLength < length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesLength + length));
+        System.arraycopy(source, start, bytes, bytesLength, length);
+        int offset = bytesLength;
+        bytesLength += length;
+        return offset;
+    }
+
+    private boolean nameEquals(int index, String name) {
+        if (names[index] != null)
+            return names[index].equalsIgnoreCase(name);
+        int start = slices[index * 4];
+        int end = slices[index * 4 + 1];
+        if (end - start != name.length())
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (lower(bytes[start + i] & 0xff) != lower(name.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolve a header name to the id of a well known header.
+     * @param name The name, in any case.
+     * @return The id, or -1 if the name is not well known.
+     */
+    public static int idOf(String name) {
+        int h = hash(name);
+        for (int slot = h & (KNOWN_SLOTS.length - 1); KNOWN_SLOTS[slot] != 0; slot = (slot + 1) & (KNOWN_SLOTS.length - 1)) {
+            String known = KNOWN[KNOWN_SLOTS[slot] - 1];
+            if (known.equalsIgnoreCase(name))
+                return KNOWN_SLOTS[slot] - 1;
+        }
+        return -1;
+    }
+
+    private static int idOf(byte[] source, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + lower(source[i] & 0xff);
+        h ^= h >>> 7;
+        for (int slot = h & (KNOWN_SLOTS.length - 1); KNOWN_SLOTS[slot] != 0; slot = (slot + 1) & (KNOWN_SLOTS.length - 1)) {
+            String known = KNOWN[KNOWN_SLOTS[slot] - 1];
+            if (known.length() == end - start && equalsIgnoreCase(source, start, known))
+                return KNOWN_SLOTS[slot] - 1;
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] source, int start, String lowercase) {
+        for (int i = 0; i < lowercase.length(); i++) {
+            if (lower(source[start + i] & 0xff) != lowercase.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++)
+            h = 31 * h + lower(name.charAt(i));
+        return h ^ (h >>> 7);
+    }
+
+    private static int lower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
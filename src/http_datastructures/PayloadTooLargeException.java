@@ -0,0 +1,7 @@
+package http_datastructures;
+
+/**
+ * The body of a request exceeds the size limit of the server.
+ */
+public class PayloadTooLargeException extends Throwable {
+}
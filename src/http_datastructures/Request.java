@@ -2,8 +2,9 @@ package http_datastructures;
 
 public class Request extends HTTPMessage {
 
-    private final RequestType type;
-    private final String path;
+    private RequestType type;
+    private String path;
+    private BodySink bodySink;
 
     /**
      * Get the HTTP request type.
@@ -21,6 +22,32 @@ public class Request extends HTTPMessage {
         return path;
     }
 
+    /**
+     * Get the sink the body of this request was written to while it was parsed.
+     * @return The sink holding the body, or null if the body, if any, is the content of this request.
+     */
+    public BodySink getBodySink() {
+        return bodySink;
+    }
+
+    void setBodySink(BodySink bodySink) {
+        this.bodySink = bodySink;
+    }
+
+    /**
+     * Turn this request into a new request with the provided data, without headers or content, so that the objects
+     * of a request that is no longer used can be reused.
+     * @param type The HTTP request type.
+     * @param path The path for this request.
+     * @param version The HTTP version of this request.
+     */
+    void reset(RequestType type, String path, HTTPVersion version) {
+        clear(version);
+        this.type = type;
+        this.path = path.startsWith("/") ? path : "/" + path;
+        this.bodySink = null;
+    }
+
     /**
      * Create a request with the provided data. Contents will be set to null,
      * no headers will be set.
@@ -0,0 +1,417 @@
+package http_datastructures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser turning the raw bytes of a connection into requests.
+ * Bytes can be offered in pieces of any size: the parser keeps its state between calls and returns a
+ * request as soon as it has been received completely, leaving the bytes of the next request in the buffer.
+ * Every byte is looked at once, and the request line and headers are limited in size and count.
+ * Bodies are limited in size, and can be streamed to a {@link BodySink} instead of being held in memory.
+ * A parser is meant to be reused for all requests on a connection, but is not thread safe.
+ */
+public class RequestParser {
+
+    private enum State {
+        REQUEST_LINE, HEADER_LINE, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER_LINE
+    }
+
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long maxBodySize;
+    private final BodySink.Factory sinks;
+
+    private State state = State.REQUEST_LINE;
+    private Request request;
+    // A request that was handed back, reused for the next request.
+    private Request spare;
+    private int headerSize;
+    private int headerCount;
+
+    // The line being read, without its line ending.
+    private byte[] line = new byte[128];
+    private int lineLength;
+    private boolean lineComplete;
+
+    // The body being read, either into memory or to a sink, and the bytes still to come in the body or the current chunk.
+    private byte[] body = new byte[0];
+    private int bodyLength;
+    private BodySink sink;
+    private long bodySize;
+    private long remaining;
+
+    /**
+     * Initialise a parser with the given header limits, that keeps bodies in memory.
+     * @param maxHeaderSize The maximum number of bytes in the request line and headers together.
+     * @param maxHeaderCount The maximum number of header lines in a request.
+     */
+    public RequestParser(int maxHeaderSize, int maxHeaderCount) {
+        this(maxHeaderSize, maxHeaderCount, Integer.MAX_VALUE - 8, null);
+    }
+
+    /**
+     * Initialise a parser with the given limits.
+     * @param maxHeaderSize The maximum number of bytes in the request line and headers together.
+     * @param maxHeaderCount The maximum number of header lines in a request.
+     * @param maxBodySize The maximum number of bytes in the body of a request.
+     * @param sinks Chooses the sinks that bodies are streamed to, or null to keep all bodies in memory.
+     */
+    public RequestParser(int maxHeaderSize, int maxHeaderCount, long maxBodySize, BodySink.Factory sinks) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxBodySize = maxBodySize;
+        this.sinks = sinks;
+    }
+
+    /**
+     * Parse the bytes in the given buffer, until a complete request has been read or the buffer is empty.
+     * The position of the buffer is advanced past the bytes that were used.
+     * @param buffer The buffer containing the next bytes received on the connection.
+     * @return The request if it has been received completely, or null if more bytes are needed.
+     * @throws IllegalRequestException The request line is malformed.
+     * @throws IllegalHeaderException A header is malformed.
+     * @throws UnsupportedHTTPCommandException The request method is not supported.
+     * @throws UnsupportedHTTPVersionException The HTTP version is not supported.
+     * @throws HeaderTooLargeException The request line and headers are too large or too many.
+     * @throws PayloadTooLargeException The body of the request is too large.
+     */
+    public Request parse(ByteBuffer buffer) throws IllegalRequestException, IllegalHeaderException,
+            UnsupportedHTTPCommandException, UnsupportedHTTPVersionException, HeaderTooLargeException,
+            PayloadTooLargeException {
+        while (buffer.hasRemaining()) {
+            switch (state) {
+                case REQUEST_LINE:
+                    if (readLine(buffer, true) && lineLength > 0) {
+                        parseRequestLine();
+                        state = State.HEADER_LINE;
+                    }
+                    break;
+                case HEADER_LINE:
+                    if (readLine(buffer, true)) {
+                        if (lineLength > 0) {
+                            parseHeaderLine();
+                        } else if (startBody()) {
+                            return finish();
+                        }
+                    }
+                    break;
+                case BODY:
+                    readBody(buffer);
+                    if (remaining == 0)
+                        return finish();
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(buffer, false)) {
+                        remaining = parseChunkSize();
+                        state = remaining == 0 ? State.TRAILER_LINE : State.CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_DATA:
+                    readBody(buffer);
+                    if (remaining == 0)
+                        state = State.CHUNK_END;
+                    break;
+                case CHUNK_END:
+                    if (readLine(buffer, false)) {
+                        if (lineLength != 0)
+                            throw new IllegalHeaderException(lineString());
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER_LINE:
+                    if (readLine(buffer, true)) {
+                        if (lineLength == 0)
+                            return finish();
+                        parseHeaderLine();
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the request that is being parsed, if any, so the parser can start on a new request.
+     * The sink of an incomplete body is aborted. Call this when the connection is closed.
+     */
+    public void reset() {
+        if (sink != null) {
+            sink.abort();
+            sink = null;
+        }
+        state = State.REQUEST_LINE;
+        request = null;
+        headerSize = 0;
+        headerCount = 0;
+        lineLength = 0;
+        lineComplete = false;
+        bodyLength = 0;
+        bodySize = 0;
+        remaining = 0;
+    }
+
+    /**
+     * Hand back a request returned by {@link #parse} that is no longer used, so that its objects are reused for
+     * the next request instead of allocating new ones. The request must not be used after this call.
+     * @param used The request.
+     */
+    public void recycle(Request used) {
+        spare = used;
+    }
+
+    /**
+     * Check whether the parser is in the middle of a request.
+     * @return true if part of a request has been read.
+     */
+    public boolean isParsing() {
+        return state != State.REQUEST_LINE || (!lineComplete && lineLength > 0);
+    }
+
+    /**
+     * Check whether the parser is reading the body of a request, its request line and headers are complete.
+     * @return true if part of a body, or of the chunks or trailers of a chunked body, is still to be read.
+     */
+    public boolean isReadingBody() {
+        return state != State.REQUEST_LINE && state != State.HEADER_LINE;
+    }
+
+    /**
+     * Read bytes into the line buffer until the end of the line.
+     * @param countAsHeader Whether the bytes count towards the header size limit.
+     * @return true if a complete line has been read.
+     */
+    private boolean readLine(ByteBuffer buffer, boolean countAsHeader) throws HeaderTooLargeException {
+        if (lineComplete) {
+            // Start a new line, the previous one has been processed.
+            lineComplete = false;
+            lineLength = 0;
+        }
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (countAsHeader && ++headerSize > maxHeaderSize)
+                throw new HeaderTooLargeException();
+            if (b == '\n') {
+                // Accept a bare LF as line ending as well, and drop the CR before it.
+                if (lineLength > 0 && line[lineLength - 1] == '\r')
+                    lineLength--;
+                lineComplete = true;
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (countAsHeader || line.length < 1024) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                } else {
+                    // Chunk size lines are short, something is wrong.
+                    throw new HeaderTooLargeException();
+                }
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private String lineString() {
+        return new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parse the request line in the line buffer: "METHOD target HTTP/x.y".
+     */
+    private void parseRequestLine() throws IllegalRequestException, UnsupportedHTTPCommandException, UnsupportedHTTPVersionException {
+        int firstSpace = indexOf(' ', 0);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(' ', firstSpace + 1);
+        if (secondSpace < 0)
+            throw new IllegalRequestException();
+
+        RequestType type = null;
+        for (RequestType candidate : RequestType.values()) {
+            if (equalsAscii(0, firstSpace, candidate.typeString)) {
+                type = candidate;
+                break;
+            }
+        }
+        if (type == null)
+            throw new UnsupportedHTTPCommandException();
+
+        String path = new String(line, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.ISO_8859_1);
+
+        HTTPVersion version;
+        if (equalsAscii(secondSpace + 1, lineLength, HTTPVersion.HTTP11.versionString)) {
+            version = HTTPVersion.HTTP11;
+        } else if (equalsAscii(secondSpace + 1, lineLength, HTTPVersion.HTTP10.versionString)) {
+            version = HTTPVersion.HTTP10;
+        } else {
+            throw new UnsupportedHTTPVersionException();
+        }
+
+        if (spare != null) {
+            request = spare;
+            spare = null;
+            request.reset(type, path, version);
+        } else {
+            request = new Request(type, path, version);
+        }
+    }
+
+    /**
+     * Parse the header line in the line buffer: "name: value", or the continuation of the previous header
+     * if the line starts with whitespace. The name and value are copied into the header table of the request
+     * as bytes, repeated headers are kept.
+     */
+    private void parseHeaderLine() throws IllegalHeaderException, HeaderTooLargeException {
+        if (line[0] == ' ' || line[0] == '\t') {
+            int start = trimStart(0, lineLength);
+            if (!request.getHeaders().extendLast(line, start, trimEnd(start, lineLength)))
+                throw new IllegalHeaderException(lineString());
+            return;
+        }
+        if (++headerCount > maxHeaderCount)
+            throw new HeaderTooLargeException();
+
+        int colon = indexOf(':', 0);
+        if (colon <= 0)
+            throw new IllegalHeaderException(lineString());
+
+        // Header names are case insensitive, lowercase them while they are still bytes.
+        for (int i = 0; i < colon; i++) {
+            byte b = line[i];
+            if (b >= 'A' && b <= 'Z')
+                line[i] = (byte) (b + ('a' - 'A'));
+        }
+        int valueStart = trimStart(colon + 1, lineLength);
+        request.getHeaders().add(line, 0, colon, valueStart, trimEnd(valueStart, lineLength));
+    }
+
+    private int trimStart(int start, int end) {
+        while (start < end && (line[start] == ' ' || line[start] == '\t'))
+            start++;
+        return start;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && (line[end - 1] == ' ' || line[end - 1] == '\t'))
+            end--;
+        return end;
+    }
+
+    /**
+     * Prepare for reading the body of the request, using the content-length and transfer-encoding headers.
+     * @return true if the request has no body and is complete.
+     */
+    private boolean startBody() throws IllegalHeaderException, PayloadTooLargeException {
+        bodyLength = 0;
+        bodySize = 0;
+        String transferEncoding = request.getHeaders().get(Headers.TRANSFER_ENCODING);
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            openSink();
+            state = State.CHUNK_SIZE;
+            return false;
+        }
+        String contentLength = request.getHeaders().get(Headers.CONTENT_LENGTH);
+        if (contentLength == null)
+            return true;
+        try {
+            remaining = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            throw new IllegalHeaderException("content-length: " + contentLength);
+        }
+        if (remaining < 0)
+            throw new IllegalHeaderException("content-length: " + contentLength);
+        if (remaining > maxBodySize)
+            throw new PayloadTooLargeException();
+        if (remaining == 0)
+            return true;
+        openSink();
+        if (sink == null && remaining > Integer.MAX_VALUE - 8)
+            throw new PayloadTooLargeException();
+        state = State.BODY;
+        return false;
+    }
+
+    private void openSink() {
+        if (sinks != null)
+            sink = sinks.open(request);
+    }
+
+    private long parseChunkSize() throws IllegalHeaderException, PayloadTooLargeException {
+        int end = indexOf(';', 0);
+        if (end < 0)
+            end = lineLength;
+        while (end > 0 && (line[end - 1] == ' ' || line[end - 1] == '\t'))
+            end--;
+        if (end == 0 || end > 8)
+            throw new IllegalHeaderException(lineString());
+        long size = 0;
+        for (int i = 0; i < end; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0)
+                throw new IllegalHeaderException(lineString());
+            size = size * 16 + digit;
+        }
+        if (bodySize + size > maxBodySize || (sink == null && bodySize + size > Integer.MAX_VALUE - 8))
+            throw new PayloadTooLargeException();
+        return size;
+    }
+
+    /**
+     * Hand as much of the remaining body or chunk as is available to the sink, or copy it into the body buffer.
+     */
+    private void readBody(ByteBuffer buffer) {
+        int count = (int) Math.min(remaining, buffer.remaining());
+        bodySize += count;
+        remaining -= count;
+        if (sink != null) {
+            // Pass on the bytes where they are, the sink consumes them before the buffer is read into again.
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            sink.write(buffer);
+            buffer.position(buffer.limit());
+            buffer.limit(limit);
+            return;
+        }
+        if (body.length - bodyLength < count) {
+            body = Arrays.copyOf(body, Math.max(bodyLength + count, Math.min(body.length * 2, bodyLength + count + (int) remaining)));
+        }
+        buffer.get(body, bodyLength, count);
+        bodyLength += count;
+    }
+
+    /**
+     * Hand out the completed request and get ready for the next one.
+     */
+    private Request finish() {
+        Request complete = request;
+        if (sink != null) {
+            sink.finish();
+            complete.setBodySink(sink);
+            sink = null;
+        } else if (bodyLength > 0)
+            complete.setParsedContent(Arrays.copyOf(body, bodyLength));
+        if (body.length > 64 * 1024) {
+            // Don't hold on to the memory of an exceptionally large body.
+            body = new byte[0];
+        }
+        reset();
+        return complete;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < lineLength; i++) {
+            if (line[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean equalsAscii(int start, int end, String s) {
+        if (end - start != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (line[start + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
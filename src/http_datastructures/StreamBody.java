@@ -0,0 +1,134 @@
+package http_datastructures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A body of unknown length that is produced while it is written, e.g. a file that is compressed as it is sent.
+ * The body is copied from its source to the connection through a small buffer, so the first bytes are sent
+ * before the rest has been produced. In HTTP/1.1 the body is sent in chunked transfer coding, one chunk per read
+ * from the source. Any producer can be used as source by implementing {@link ReadableByteChannel#read}, filling
+ * the buffer with the next bytes and returning -1 at the end.
+ * <p>
+ * The source is only read when the connection has accepted the previous chunk, on the thread writing the
+ * connection, which for the non-blocking engine is its event loop. A read must therefore return promptly with at
+ * least one byte, it can not wait for data that is not there yet, such as the output of another process.
+ */
+public class StreamBody extends Body {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Room in front of the data of a chunk for its size: up to 8 hexadecimal digits and a CRLF.
+    private static final int CHUNK_HEADER_ROOM = 10;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final ReadableByteChannel source;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean chunked;
+    private boolean endOfStream;
+    private boolean finished;
+
+    /**
+     * Create a body that copies the bytes of the given channel, until the end of the channel.
+     * @param source The channel to read the body from, which returns at least one byte from every read until its
+     *               end. It is closed with this body.
+     */
+    public StreamBody(ReadableByteChannel source) {
+        this.source = source;
+        buffer.flip();
+    }
+
+    /**
+     * Create a body that copies the bytes of the given stream, until the end of the stream.
+     * @param source The stream to read the body from. It is closed with this body.
+     */
+    public StreamBody(InputStream source) {
+        this(Channels.newChannel(source));
+    }
+
+    /**
+     * Choose whether the body is written in chunked transfer coding, which is done by the message the body is set on.
+     * @param chunked true to write each part of the body as a chunk, followed by the last chunk at the end.
+     */
+    void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        long written = 0;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill())
+                return written > 0 ? written : -1;
+            int count = channel.write(buffer);
+            if (count == 0)
+                return written;
+            written += count;
+        }
+    }
+
+    /**
+     * Read the next part of the body into the buffer, framed as a chunk if needed.
+     * @return false if the whole body has been written.
+     */
+    private boolean fill() throws IOException {
+        buffer.clear();
+        if (endOfStream) {
+            if (!chunked || finished) {
+                buffer.flip();
+                return false;
+            }
+            // End the body with the last chunk, there are no trailers.
+            finished = true;
+            buffer.put(LAST_CHUNK);
+            buffer.flip();
+            return true;
+        }
+
+        int start = chunked ? CHUNK_HEADER_ROOM : 0;
+        buffer.position(start);
+        // Keep room for the CRLF behind the data of a chunk.
+        buffer.limit(chunked ? buffer.capacity() - 2 : buffer.capacity());
+        int read = source.read(buffer);
+        if (read == 0)
+            throw new IOException("The source of the body had no bytes to read.");
+        if (read < 0) {
+            endOfStream = true;
+            return fill();
+        }
+        if (!chunked) {
+            buffer.flip();
+            return true;
+        }
+
+        // Write the size of the chunk in front of the data, and a CRLF behind it.
+        int end = buffer.position();
+        buffer.limit(end + 2);
+        buffer.put((byte) '\r').put((byte) '\n');
+        int size = end - CHUNK_HEADER_ROOM;
+        int digits = (Integer.SIZE - Integer.numberOfLeadingZeros(size) + 3) / 4;
+        start = CHUNK_HEADER_ROOM - digits - 2;
+        for (int i = 0; i < digits; i++) {
+            buffer.put(start + i, HEX[(size >>> (4 * (digits - 1 - i))) & 0xf]);
+        }
+        buffer.put(start + digits, (byte) '\r');
+        buffer.put(start + digits + 1, (byte) '\n');
+        buffer.position(start);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
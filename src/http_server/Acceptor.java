@@ -0,0 +1,161 @@
+package http_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A thread accepting connections and handing them to an engine. A server runs a configurable number of acceptors,
+ * so short connections are not held up by a single accepting thread. They either share a listening socket, or each
+ * has its own listener on the same port with SO_REUSEPORT, so the kernel spreads the incoming connections over them
+ * instead of waking all acceptors for each one.
+ */
+class Acceptor implements Runnable {
+
+    /**
+     * Takes over the connections an acceptor accepted.
+     */
+    interface Handoff {
+
+        /**
+         * Start serving an accepted connection, for which room has been reserved with the connection manager.
+         * @param channel The connection, in blocking mode.
+         * @return false if the engine is overloaded, in which case the connection is refused.
+         */
+        boolean accept(SocketChannel channel);
+    }
+
+    // The pauses after a failed accept, doubling while accepting keeps failing.
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    // How often a failing accept is logged.
+    private static final long LOG_INTERVAL_MILLIS = 1000;
+
+    private final int index;
+    private final ServerSocketChannel listener;
+    private final ServerConfig config;
+    private final ConnectionManager manager;
+    private final ServerMetrics metrics;
+    private final Handoff handoff;
+
+    private Acceptor(int index, ServerSocketChannel listener, ServerConfig config, ConnectionManager manager,
+                     ServerMetrics metrics, Handoff handoff) {
+        this.index = index;
+        this.listener = listener;
+        this.config = config;
+        this.manager = manager;
+        this.metrics = metrics;
+        this.handoff = handoff;
+    }
+
+    /**
+     * Open the listening sockets on the configured port and start the configured number of acceptors on them.
+     * The listeners are closed by the connection manager when the server shuts down, which ends the acceptors.
+     * @param config The server configuration.
+     * @param manager The manager of the connections, which limits them.
+     * @param metrics The metrics to count the accepted and refused connections in.
+     * @param handoff Where the accepted connections go.
+     * @throws IOException A listening socket could not be opened.
+     */
+    static void start(ServerConfig config, ConnectionManager manager, ServerMetrics metrics, Handoff handoff)
+            throws IOException {
+        int count = config.getAcceptors();
+        boolean reusePort = config.isReusePort();
+        ServerSocketChannel shared = null;
+        for (int i = 0; i < count; i++) {
+            ServerSocketChannel listener;
+            if (shared != null) {
+                listener = shared;
+            } else {
+                listener = ServerSocketChannel.open();
+                if (reusePort && !listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    System.err.println("SO_REUSEPORT is not supported here, the acceptors share one listener.");
+                    reusePort = false;
+                }
+                if (reusePort)
+                    listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                // Set before binding, so that the window scale of the accepted connections can use it.
+                if (config.getReceiveBuffer() > 0)
+                    listener.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBuffer());
+                listener.bind(new InetSocketAddress(config.getPort()), config.getAcceptBacklog());
+                manager.listen(listener);
+                if (!reusePort)
+                    shared = listener;
+            }
+            Thread thread = new Thread(new Acceptor(i, listener, config, manager, metrics, handoff), "http-acceptor-" + i);
+            thread.setDaemon(false);
+            thread.start();
+        }
+    }
+
+    /**
+     * Accept connections until the listener is closed. While accepting fails, e.g. because the process is out of
+     * file descriptors, the acceptor pauses for longer and longer and logs the failure at most once a second, so
+     * it does not spin on the pending connection or flood the log.
+     */
+    @Override
+    public void run() {
+        long backoff = 0;
+        long loggedAt = 0;
+        int failures = 0;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+                backoff = 0;
+            } catch (ClosedChannelException e) {
+                // The server is shutting down.
+                return;
+            } catch (IOException e) {
+                // The connection is left in the backlog, until descriptors are freed.
+                failures++;
+                long now = System.currentTimeMillis();
+                if (now - loggedAt >= LOG_INTERVAL_MILLIS) {
+                    System.err.println("Could not accept a connection: " + e
+                            + (failures > 1 ? " (" + failures + " times since the last message)" : ""));
+                    loggedAt = now;
+                    failures = 0;
+                }
+                backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            if (channel == null)
+                continue;
+            metrics.connectionAccepted(index);
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+                if (config.getSendBuffer() > 0)
+                    channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBuffer());
+            } catch (IOException e) {
+                // The connection is gone already.
+                close(channel);
+                continue;
+            }
+            if (!manager.acquire()) {
+                metrics.connectionRefused();
+                TCPServer.reject(channel.socket(), config.getRetryAfter());
+                continue;
+            }
+            if (!handoff.accept(channel)) {
+                metrics.connectionRefused();
+                TCPServer.reject(channel.socket(), config.getRetryAfter());
+            }
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+}
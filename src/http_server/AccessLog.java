@@ -0,0 +1,387 @@
+package http_server;
+
+import http_datastructures.HTTPVersion;
+import http_datastructures.RequestType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The access log of the server: a line per request, never including bodies, in the Common or Combined log format
+ * or as JSON lines. Connections hand their entries to a bounded lock-free ring buffer and return immediately; a
+ * background thread formats the entries and writes them in batches, to a file that is rotated when it grows too
+ * large, or to standard output. When the writer falls behind and the ring is full, entries are dropped and
+ * counted in the metrics rather than slowing down the connections.
+ */
+class AccessLog {
+
+    /**
+     * The formats the access log can be written in.
+     */
+    enum Format {
+        /** host - - [time] "request line" status bytes */
+        COMMON,
+        /** The common format, followed by the quoted referer and user agent. */
+        COMBINED,
+        /** An object per line with the fields of the combined format, and the duration. */
+        JSON
+    }
+
+    private static final DateTimeFormatter CLF_TIME =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ROOT).withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter ISO_TIME = DateTimeFormatter.ISO_INSTANT;
+    // The writer writes a batch once it has formatted this many characters, or runs out of entries.
+    private static final int BATCH_CHARS = 32 * 1024;
+    // How long the writer sleeps when there are no entries.
+    private static final long IDLE_NANOS = 10_000_000;
+
+    private volatile Format format;
+    // The file to write to, or null to write to standard output.
+    private final Path path;
+    private volatile long maxBytes;
+    private volatile int maxFiles;
+    private final ServerMetrics metrics;
+
+    // The ring buffer. Slot i holds the entry of sequence number i + k * capacity; its sequence tells whether it
+    // is free for that entry (equal to the number), filled (one more), or still holds an older entry.
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final StringBuilder batch = new StringBuilder(BATCH_CHARS + 1024);
+    private OutputStream out;
+    private long written;
+    private long lastSecond = -1;
+    private String lastTime;
+    private volatile boolean closed;
+    private Thread writer;
+
+    /**
+     * Initialise the access log described by the configuration. Nothing is logged until it is started.
+     * @param config The server configuration.
+     * @param metrics The metrics to count dropped entries in.
+     */
+    AccessLog(ServerConfig config, ServerMetrics metrics) {
+        String destination = config.getAccessLogPath();
+        this.format = config.getAccessLogFormat();
+        this.path = destination.isEmpty() || destination.equals("-") ? null : Paths.get(destination);
+        this.maxBytes = config.getAccessLogMaxBytes();
+        this.maxFiles = config.getAccessLogFiles();
+        this.metrics = metrics;
+        int capacity = destination.isEmpty() ? 0 : Integer.highestOneBit(Math.max(1, config.getAccessLogBuffer() - 1)) << 1;
+        this.ring = new Entry[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Entry(i);
+        }
+    }
+
+    /**
+     * Open the log and start the thread writing it, unless the log is turned off.
+     * @throws IOException The log file could not be opened.
+     */
+    void start() throws IOException {
+        if (ring.length == 0)
+            return;
+        open();
+        writer = new Thread(this::run, "http-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Apply the format and rotation of a new configuration. The destination and size of the buffer can only be
+     * changed by restarting the server.
+     * @param config The new server configuration.
+     */
+    void reconfigure(ServerConfig config) {
+        this.format = config.getAccessLogFormat();
+        this.maxBytes = config.getAccessLogMaxBytes();
+        this.maxFiles = config.getAccessLogFiles();
+    }
+
+    /**
+     * Check whether requests are logged.
+     * @return false if the log is turned off.
+     */
+    boolean isEnabled() {
+        return ring.length > 0;
+    }
+
+    /**
+     * Check whether the entries include the referer and user agent of the request.
+     * @return true if the format has these fields.
+     */
+    boolean isCombined() {
+        return format != Format.COMMON;
+    }
+
+    /**
+     * Add an entry to the log. This does not block: the entry is dropped when the log can not keep up.
+     * @param remote The address of the client.
+     * @param method The method of the request, or null if it could not be parsed.
+     * @param target The request target, or null if the request could not be parsed.
+     * @param version The HTTP version of the request, or null if it could not be parsed.
+     * @param status The status code of the response.
+     * @param bytes The length of the response body, or -1 if it is not known.
+     * @param referer The referer header of the request, or null.
+     * @param userAgent The user-agent header of the request, or null.
+     * @param nanos The time spent parsing and handling the request.
+     */
+    void log(String remote, RequestType method, String target, HTTPVersion version, int status, long bytes,
+             String referer, String userAgent, long nanos) {
+        if (ring.length == 0 || closed)
+            return;
+        Entry entry;
+        long sequence = tail.get();
+        while (true) {
+            entry = ring[(int) sequence & mask];
+            long available = entry.sequence - sequence;
+            if (available == 0) {
+                if (tail.compareAndSet(sequence, sequence + 1))
+                    break;
+                sequence = tail.get();
+            } else if (available < 0) {
+                // The ring is full.
+                metrics.accessLogDropped();
+                return;
+            } else {
+                sequence = tail.get();
+            }
+        }
+        entry.time = System.currentTimeMillis();
+        entry.remote = remote;
+        entry.method = method;
+        entry.target = target;
+        entry.version = version;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.referer = referer;
+        entry.userAgent = userAgent;
+        entry.nanos = nanos;
+        entry.sequence = sequence + 1;
+    }
+
+    /**
+     * Stop accepting entries, write the ones that are left and close the log.
+     */
+    void close() {
+        closed = true;
+        if (writer == null)
+            return;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            boolean last = closed;
+            try {
+                int count = drain();
+                if (batch.length() > 0)
+                    write();
+                if (count == 0) {
+                    if (last)
+                        break;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write the access log: " + e);
+                batch.setLength(0);
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        try {
+            if (path != null)
+                out.close();
+            else
+                out.flush();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    /**
+     * Format the entries in the ring, until the batch is full or the ring is empty.
+     * @return The number of entries formatted.
+     */
+    private int drain() {
+        int count = 0;
+        while (batch.length() < BATCH_CHARS) {
+            Entry entry = ring[(int) head & mask];
+            if (entry.sequence != head + 1)
+                break;
+            append(entry);
+            entry.remote = entry.target = entry.referer = entry.userAgent = null;
+            entry.sequence = head + ring.length;
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    private void write() throws IOException {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+        if (path != null && maxBytes > 0 && written > 0 && written + bytes.length > maxBytes)
+            rotate();
+        out.write(bytes);
+        out.flush();
+        written += bytes.length;
+    }
+
+    private void open() throws IOException {
+        if (path == null) {
+            out = System.out;
+            return;
+        }
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        out = new FileOutputStream(path.toFile(), true);
+        written = Files.size(path);
+    }
+
+    /**
+     * Move the log file to name.1, name.1 to name.2 and so on, dropping the oldest, and start a new file.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        Files.deleteIfExists(rotated(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from))
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        out = new FileOutputStream(path.toFile(), true);
+        written = 0;
+    }
+
+    private Path rotated(int index) {
+        return index == 0 ? path : path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void append(Entry entry) {
+        if (format == Format.JSON) {
+            batch.append("{\"time\":\"").append(ISO_TIME.format(Instant.ofEpochMilli(entry.time)));
+            batch.append("\",\"remote\":");
+            json(entry.remote);
+            batch.append(",\"method\":");
+            json(entry.method == null ? null : entry.method.name());
+            batch.append(",\"target\":");
+            json(entry.target);
+            batch.append(",\"protocol\":");
+            json(entry.version == null ? null : entry.version.toString());
+            batch.append(",\"status\":").append(entry.status);
+            batch.append(",\"bytes\":").append(entry.bytes < 0 ? "null" : String.valueOf(entry.bytes));
+            batch.append(",\"referer\":");
+            json(entry.referer);
+            batch.append(",\"userAgent\":");
+            json(entry.userAgent);
+            batch.append(",\"micros\":").append(entry.nanos / 1000).append("}\n");
+            return;
+        }
+        batch.append(entry.remote).append(" - - [").append(clfTime(entry.time)).append("] \"");
+        if (entry.method == null) {
+            batch.append('-');
+        } else {
+            batch.append(entry.method.name()).append(' ');
+            quoted(entry.target);
+            batch.append(' ').append(entry.version);
+        }
+        batch.append("\" ").append(entry.status).append(' ');
+        if (entry.bytes < 0)
+            batch.append('-');
+        else
+            batch.append(entry.bytes);
+        if (format == Format.COMBINED) {
+            batch.append(" \"");
+            quoted(entry.referer == null ? "-" : entry.referer);
+            batch.append("\" \"");
+            quoted(entry.userAgent == null ? "-" : entry.userAgent);
+            batch.append('"');
+        }
+        batch.append('\n');
+    }
+
+    /**
+     * Format a time for the common log format, once per second.
+     */
+    private String clfTime(long millis) {
+        long second = millis / 1000;
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastTime = CLF_TIME.format(Instant.ofEpochSecond(second));
+        }
+        return lastTime;
+    }
+
+    /**
+     * Append a value to a quoted field, escaping quotes, backslashes and control characters so a client can not
+     * forge lines or fields.
+     */
+    private void quoted(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                batch.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                batch.append("\\x").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            } else {
+                batch.append(c);
+            }
+        }
+    }
+
+    private void json(String value) {
+        if (value == null) {
+            batch.append("null");
+            return;
+        }
+        batch.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                batch.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                batch.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            } else {
+                batch.append(c);
+            }
+        }
+        batch.append('"');
+    }
+
+    /**
+     * A slot of the ring buffer, reused for every entry that passes through it.
+     */
+    private static class Entry {
+
+        private volatile long sequence;
+        private long time;
+        private String remote;
+        private RequestType method;
+        private String target;
+        private HTTPVersion version;
+        private int status;
+        private long bytes;
+        private String referer;
+        private String userAgent;
+        private long nanos;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package http_server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Measures how many bytes are allocated on the heap while the requests of keep-alive connections are processed:
+ * parsing the request, producing the response and encoding its head. This is a debugging aid to check that the
+ * allocation per request stays flat; it uses the per thread allocation counters of the HotSpot JVM, and measures
+ * nothing on JVMs or threads (such as virtual threads) without them.
+ */
+class AllocationMonitor implements AllocationMonitorMBean {
+
+    private static final com.sun.management.ThreadMXBean THREADS;
+
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        THREADS = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private volatile long last;
+
+    /**
+     * Get the number of bytes the current thread has allocated so far, at the start of a request.
+     * @return The number of bytes, or -1 if it can not be measured.
+     */
+    long start() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Count the bytes the current thread allocated for a request.
+     * @param start The value returned by {@link #start} when the request started.
+     */
+    void record(long start) {
+        if (start < 0)
+            return;
+        long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        if (bytes < 0)
+            return;
+        requests.increment();
+        allocated.add(bytes);
+        last = bytes;
+    }
+
+    /**
+     * Register this monitor with the platform MBean server, so its numbers can be read over JMX.
+     */
+    void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("http_server:type=AllocationMonitor"));
+        } catch (Exception e) {
+            System.err.println("Could not register the allocation monitor: " + e);
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocated.sum();
+    }
+
+    @Override
+    public long getAllocatedBytesPerRequest() {
+        long count = requests.sum();
+        return count == 0 ? 0 : allocated.sum() / count;
+    }
+
+    @Override
+    public long getLastRequestAllocatedBytes() {
+        return last;
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        allocated.reset();
+        last = 0;
+    }
+}
@@ -0,0 +1,32 @@
+package http_server;
+
+/**
+ * Management interface exposing the heap allocation of request processing over JMX, for debugging.
+ */
+public interface AllocationMonitorMBean {
+
+    /**
+     * @return The number of requests that have been measured.
+     */
+    long getRequests();
+
+    /**
+     * @return The total number of bytes allocated while processing the measured requests.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return The average number of bytes allocated per request, or 0 if no request has been measured.
+     */
+    long getAllocatedBytesPerRequest();
+
+    /**
+     * @return The number of bytes allocated for the last measured request.
+     */
+    long getLastRequestAllocatedBytes();
+
+    /**
+     * Start counting again, e.g. once the server has warmed up.
+     */
+    void reset();
+}
@@ -0,0 +1,56 @@
+package http_server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equally sized byte buffers, shared between threads.
+ * Buffers that are returned when the pool is full are left to the garbage collector.
+ */
+class BufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * Initialise an empty pool.
+     * @param bufferSize The size of the buffers in this pool.
+     * @param capacity The maximum number of idle buffers kept in this pool.
+     * @param direct Whether to allocate direct buffers instead of heap buffers.
+     */
+    BufferPool(int bufferSize, int capacity, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Take a cleared buffer from the pool, or allocate a new one if the pool is empty.
+     * @return A buffer of the size of this pool.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers of a different size than the pool's are dropped.
+     * @param buffer The buffer, which must no longer be used by the caller.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize)
+            buffers.offer(buffer);
+    }
+
+    /**
+     * Get the size of the buffers in this pool.
+     * @return The capacity of the buffers in bytes.
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+}
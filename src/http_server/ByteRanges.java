@@ -0,0 +1,71 @@
+package http_server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing of the range header of a request (RFC 7233, section 2.1), e.g. "bytes=0-499,1000-,-200".
+ */
+final class ByteRanges {
+
+    // Requests for more ranges than this get the whole file, so they can not make us send many tiny parts.
+    static final int MAX_RANGES = 16;
+
+    private ByteRanges() {
+    }
+
+    /**
+     * Parse a range header against the length of the content it applies to.
+     * @param header The value of the range header.
+     * @param length The length of the content.
+     * @return The satisfiable ranges as pairs of first and last byte position, an empty list if none of the ranges
+     * can be satisfied, or null if the header is malformed or asks for too many ranges and should be ignored.
+     */
+    static List<long[]> parse(String header, long length) {
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6))
+            return null;
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES)
+            return null;
+
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+                return null;
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // A suffix range: the last n bytes.
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0)
+                        return null;
+                    if (suffix == 0)
+                        continue;
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        last = length - 1;
+                    } else {
+                        last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < first)
+                            return null;
+                        last = Math.min(last, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (first < 0)
+                return null;
+            if (first < length)
+                ranges.add(new long[]{first, last});
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,41 @@
+package http_server;
+
+import http_datastructures.Body;
+import http_datastructures.BytesBody;
+import http_datastructures.HTTPVersion;
+import http_datastructures.Response;
+
+/**
+ * A 200 response for a file in the static file cache. The headers describing the file are pre-encoded in the
+ * cache entry, only headers added to this response afterwards are encoded per response.
+ */
+class CachedResponse extends Response {
+
+    private final StaticFileCache.Entry entry;
+    private final Body body;
+
+    /**
+     * Initialise a response for a cached file.
+     * @param version The HTTP version for this response.
+     * @param entry The cached file.
+     * @param headersOnly Whether to leave out the contents of the file, for a HEAD request.
+     */
+    CachedResponse(HTTPVersion version, StaticFileCache.Entry entry, boolean headersOnly) {
+        super(version, 200, "OK");
+        this.entry = entry;
+        this.body = headersOnly ? null : new BytesBody(entry.content);
+    }
+
+    /**
+     * Get the pre-encoded headers describing the cached file.
+     * @return The header lines, each ending in CRLF.
+     */
+    byte[] getEncodedHeaders() {
+        return entry.headers;
+    }
+
+    @Override
+    public Body getBody() {
+        return body;
+    }
+}
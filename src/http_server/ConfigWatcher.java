@@ -0,0 +1,143 @@
+package http_server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Reloads the configuration of the server when its file changes, without restarting the server or dropping its
+ * connections. The file is polled, which costs a stat call every few seconds. A changed file is loaded like at
+ * startup, with the same overrides from the environment, system properties and command line; if it is invalid the
+ * server keeps running with the settings it has. Settings of the sockets and threads the server has already set up
+ * only take effect on a restart, which is logged when they change.
+ */
+class ConfigWatcher {
+
+    // The settings that are read once, when the server starts.
+    private static final Set<String> RESTART_SETTINGS = new HashSet<>(Arrays.asList(
+            "http.port", "http.backlog", "http.mode", "http.threads", "http.queue", "http.engine",
+            "http.eventLoops", "http.acceptors", "http.reusePort", "http.tcpNoDelay", "http.sendBuffer",
+            "http.receiveBuffer", "http.retryAfter", "http.metrics.path", "http.accessLog.path",
+            "http.accessLog.buffer", "http.debug.allocations", "http.config.reloadMillis"));
+
+    private final String[] args;
+    private final List<Consumer<ServerConfig>> listeners = new CopyOnWriteArrayList<>();
+    private volatile ServerConfig current;
+
+    // Only used by the watcher thread.
+    private long lastModified;
+    private long size;
+
+    /**
+     * Initialise a watcher for a configuration that was loaded with {@link ServerConfig#load}.
+     * @param config The configuration the server started with.
+     * @param args The command line arguments it was loaded with, which are applied again on every reload.
+     */
+    ConfigWatcher(ServerConfig config, String[] args) {
+        this.current = config;
+        this.args = args.clone();
+    }
+
+    /**
+     * Get the current configuration, e.g. for a new connection.
+     * @return The configuration.
+     */
+    ServerConfig get() {
+        return current;
+    }
+
+    /**
+     * Add a listener that applies a reloaded configuration. Listeners are called on the watcher thread, in the
+     * order they were added.
+     * @param listener The listener.
+     */
+    void addListener(Consumer<ServerConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start the thread that checks the configuration file for changes, unless there is no file or reloading is
+     * turned off.
+     */
+    void start() {
+        Path file = current.getConfigFile();
+        if (file == null || current.getReloadInterval() == 0)
+            return;
+        lastModified = lastModified(file);
+        size = size(file);
+        Thread watcher = new Thread(this::run, "http-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void run() {
+        Path file = current.getConfigFile();
+        while (true) {
+            try {
+                Thread.sleep(current.getReloadInterval());
+                long modified = lastModified(file);
+                long length = size(file);
+                if (modified == lastModified && length == size)
+                    continue;
+                lastModified = modified;
+                size = length;
+                reload();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Load the configuration again and hand it to the listeners if it is valid.
+     */
+    private void reload() {
+        ServerConfig config;
+        try {
+            config = ServerConfig.load(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not reload the configuration, keeping the current one: " + e.getMessage());
+            return;
+        }
+        Map<String, String> before = current.getSettings();
+        Map<String, String> after = config.getSettings();
+        if (before.equals(after))
+            return;
+        for (Map.Entry<String, String> setting : after.entrySet()) {
+            String key = setting.getKey();
+            if (RESTART_SETTINGS.contains(key) && !Objects.equals(before.get(key), setting.getValue()))
+                System.err.println("The setting " + key + " changed to " + setting.getValue() + ", it takes effect when the server is restarted.");
+        }
+        current = config;
+        for (Consumer<ServerConfig> listener : listeners) {
+            listener.accept(config);
+        }
+        System.err.println("Reloaded the configuration from " + config.getConfigFile() + ".");
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package http_server;
+
+import http_datastructures.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The state of a connection that is reused for all of its requests: the parser, which recycles the request objects,
+ * the encoder and the queue of responses with their pooled buffers. Both server engines process the requests of a
+ * connection through its context, so that a keep-alive connection in a steady state allocates little per request.
+ * A context is used by one thread at a time.
+ */
+class ConnectionContext {
+
+    private final RequestDispatcher dispatcher;
+    private final RequestParser parser;
+    private final ResponseEncoder encoder = new ResponseEncoder();
+    private final ResponseQueue output;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    // The address of the client, for the access log.
+    private final String remote;
+    // Measures the allocation per request if it is being debugged, or null.
+    private final AllocationMonitor allocations;
+    private final ConnectionManager manager;
+    // The connection the context belongs to, which is handed back to the timer when its deadline moves forward.
+    private ConnectionManager.Connection connection;
+    private boolean closeRequested;
+    // The time spent parsing the request that is being received, over all the reads it took.
+    private long parseNanos;
+
+    private final long keepAliveTimeout;
+    private final long headerTimeout;
+    private final long bodyTimeout;
+    private final long writeTimeout;
+    // The most requests answered on the connection, 0 for no limit.
+    private final int maxRequests;
+    // The value of the keep-alive header, without the number of requests that are left.
+    private final String keepAlive;
+    private int requests;
+    // When the headers of the request that is being received must be complete, or 0 if none is started.
+    private long headerDeadline;
+    // When the connection times out, in the time of the connection manager.
+    private volatile long deadline;
+
+    /**
+     * Initialise the context of a new connection.
+     * @param dispatcher The dispatcher that turns requests into responses.
+     * @param config The server configuration.
+     * @param metrics The metrics to count the requests and their latency in.
+     * @param accessLog The log to write an entry for every request to.
+     * @param remote The address of the client.
+     * @param manager The manager of the connection, which closes it when it times out.
+     */
+    ConnectionContext(RequestDispatcher dispatcher, ServerConfig config, ServerMetrics metrics, AccessLog accessLog,
+                      String remote, ConnectionManager manager) {
+        this.dispatcher = dispatcher;
+        this.parser = new RequestParser(config.getMaxHeaderSize(), config.getMaxHeaderCount(),
+                config.getMaxBodySize(), dispatcher);
+        this.output = new ResponseQueue(metrics);
+        this.metrics = metrics;
+        this.allocations = metrics.getAllocations();
+        this.accessLog = accessLog;
+        this.remote = remote;
+        this.manager = manager;
+        this.keepAliveTimeout = config.getKeepAliveTimeout();
+        this.headerTimeout = config.getHeaderTimeout();
+        this.bodyTimeout = config.getBodyTimeout();
+        this.writeTimeout = config.getSocketTimeout();
+        this.maxRequests = config.getMaxRequestsPerConnection();
+        this.keepAlive = "timeout=" + keepAliveTimeout / 1000 + (maxRequests > 0 ? ", max=" : "");
+        // A new connection has as long to send its first request as a request has to send its headers.
+        this.deadline = ConnectionManager.now() + headerTimeout;
+    }
+
+    /**
+     * Set the connection this context belongs to, so that the connection manager can be told about its deadlines.
+     * @param connection The connection.
+     */
+    void setConnection(ConnectionManager.Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Parse the next request from the input and queue the response to it, if it has been received completely.
+     * @param input The bytes received on the connection that have not been parsed yet.
+     * @return true if a request was processed, false if more input is needed.
+     */
+    boolean processRequest(ByteBuffer input) {
+        long start = allocations == null ? -1 : allocations.start();
+        Request request = null;
+        Response response;
+        long parseStart = System.nanoTime();
+        long handleNanos = 0;
+        try {
+            request = parser.parse(input);
+            long handleStart = System.nanoTime();
+            parseNanos += handleStart - parseStart;
+            if (request == null)
+                return false;
+            headerDeadline = 0;
+            metrics.recordParse(parseNanos);
+
+            // Formulate a suited response
+            response = dispatcher.getResponse(request);
+            handleNanos = System.nanoTime() - handleStart;
+            metrics.recordHandle(handleNanos);
+
+            // Close the connection if required
+            if ("close".equals(request.getHeader("connection")) || request.getVersion() == HTTPVersion.HTTP10) {
+                closeRequested = true;
+            }
+        } catch (IllegalRequestException | IllegalHeaderException | UnsupportedHTTPCommandException
+                | UnsupportedHTTPVersionException | HeaderTooLargeException | PayloadTooLargeException e) {
+            // We can not tell where the next request starts, answer and close the connection.
+            response = RequestDispatcher.errorResponse(e);
+            response.addHeader("Connection", "close");
+            closeRequested = true;
+        } catch (Throwable e) {
+            response = RequestDispatcher.errorResponse(e);
+        }
+
+        requests++;
+        if ((maxRequests > 0 && requests >= maxRequests) || manager.isShuttingDown())
+            closeRequested = true;
+        if (closeRequested) {
+            if (!response.hasHeader("connection"))
+                response.addHeader("connection", "close");
+        } else {
+            response.addHeader("keep-alive", maxRequests > 0 ? keepAlive + (maxRequests - requests) : keepAlive);
+        }
+        metrics.countRequest(request == null ? null : request.getType(), response.getStatusCode());
+        log(request, response, parseNanos + handleNanos);
+        parseNanos = 0;
+
+        // Queue the response, it is sent together with the responses to the other pipelined requests
+        output.add(encoder.encode(response), response.getBody());
+        if (request != null)
+            parser.recycle(request);
+        if (allocations != null)
+            allocations.record(start);
+        return true;
+    }
+
+    private void log(Request request, Response response, long nanos) {
+        if (!accessLog.isEnabled())
+            return;
+        Body body = response.getBody();
+        long bytes = body == null ? 0 : body.length();
+        if (request == null) {
+            accessLog.log(remote, null, null, null, response.getStatusCode(), bytes, null, null, nanos);
+        } else if (accessLog.isCombined()) {
+            accessLog.log(remote, request.getType(), request.getPath(), request.getVersion(), response.getStatusCode(),
+                    bytes, request.getHeader("referer"), request.getHeader("user-agent"), nanos);
+        } else {
+            accessLog.log(remote, request.getType(), request.getPath(), request.getVersion(), response.getStatusCode(),
+                    bytes, null, null, nanos);
+        }
+    }
+
+    /**
+     * Note that the connection is about to wait for the network, and set the deadline by which it must have made
+     * progress: the write timeout while responses are queued, the keep-alive timeout between requests, a fixed
+     * deadline for the request line and headers, so a client can not keep a connection by trickling them in, and
+     * the body timeout between the parts of a body.
+     */
+    void waiting() {
+        long now = ConnectionManager.now();
+        if (!output.isEmpty()) {
+            deadline = now + writeTimeout;
+        } else if (!parser.isParsing()) {
+            headerDeadline = 0;
+            deadline = now + (requests == 0 ? headerTimeout : keepAliveTimeout);
+        } else if (!parser.isReadingBody()) {
+            if (headerDeadline == 0)
+                headerDeadline = now + headerTimeout;
+            deadline = headerDeadline;
+        } else {
+            deadline = now + bodyTimeout;
+        }
+        if (connection != null)
+            manager.deadlineChanged(connection, deadline);
+    }
+
+    /**
+     * Note that the connection is processing input, it does not time out until it waits again.
+     */
+    void working() {
+        deadline = Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the time at which the connection times out.
+     * @return The deadline in the time of the connection manager, or Long.MAX_VALUE while it is working.
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Check whether the connection is waiting for a new request, with nothing left to write.
+     * @return true if the connection can be closed without interrupting a request.
+     */
+    boolean isIdle() {
+        return deadline != Long.MAX_VALUE && !parser.isParsing() && output.isEmpty();
+    }
+
+    /**
+     * Check whether the connection should be closed once the queued responses have been written.
+     * @return true if a request asked for the connection to be closed, or could not be parsed, or if the server is
+     * shutting down and no request is in progress.
+     */
+    boolean isCloseRequested() {
+        return closeRequested || (manager.isShuttingDown() && !parser.isParsing() && output.isEmpty());
+    }
+
+    /**
+     * Get the responses of the connection that still have to be written.
+     * @return The queue of responses.
+     */
+    ResponseQueue getOutput() {
+        return output;
+    }
+
+    /**
+     * Release the responses that could not be sent, and a body that was not received completely.
+     * Call this when the connection is closed.
+     */
+    void close() {
+        output.clear();
+        parser.reset();
+    }
+}
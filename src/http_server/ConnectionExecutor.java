@@ -0,0 +1,159 @@
+package http_server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Hands accepted connections off to threads according to the configured execution mode,
+ * and keeps track of the load on those threads.
+ */
+class ConnectionExecutor implements ConnectionExecutorMBean {
+
+    private final ServerConfig.ExecutionMode mode;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualThreads;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger largest = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * Initialise a ConnectionExecutor for the execution mode in the given configuration.
+     * @param config The server configuration.
+     * @throws IllegalStateException The virtual thread mode was requested on a Java version without virtual threads.
+     */
+    ConnectionExecutor(ServerConfig config) {
+        this.mode = config.getExecutionMode();
+        switch (mode) {
+            case POOL:
+                this.queueCapacity = config.getWorkerQueue();
+                BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+                this.pool = new ThreadPoolExecutor(config.getWorkerThreads(), config.getWorkerThreads(),
+                        60, TimeUnit.SECONDS, queue, this::newThread, new ThreadPoolExecutor.AbortPolicy());
+                this.virtualThreads = null;
+                break;
+            case VIRTUAL:
+                this.queueCapacity = 0;
+                this.pool = null;
+                this.virtualThreads = newVirtualThreadExecutor();
+                break;
+            default:
+                this.queueCapacity = 0;
+                this.pool = null;
+                this.virtualThreads = null;
+                break;
+        }
+    }
+
+    /**
+     * Run the given connection handler on a thread.
+     * @param handler The handler for an accepted connection.
+     * @return false if the server is overloaded and the connection was not accepted, true otherwise.
+     */
+    boolean execute(Runnable handler) {
+        Runnable task = () -> {
+            int now = active.incrementAndGet();
+            largest.accumulateAndGet(now, Math::max);
+            try {
+                handler.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        };
+        try {
+            switch (mode) {
+                case POOL:
+                    pool.execute(task);
+                    break;
+                case VIRTUAL:
+                    virtualThreads.execute(task);
+                    break;
+                default:
+                    newThread(task).start();
+                    break;
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Register this executor with the platform MBean server, so its metrics can be read over JMX.
+     */
+    void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("http_server:type=ConnectionExecutor"));
+        } catch (Exception e) {
+            System.err.println("Could not register the connection executor metrics: " + e);
+        }
+    }
+
+    private Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "http-worker-" + threadNumber.incrementAndGet());
+        thread.setDaemon(false);
+        return thread;
+    }
+
+    /**
+     * Create an executor that starts a virtual thread per task. This is looked up reflectively
+     * so the server still compiles and runs on Java versions without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, running on " + System.getProperty("java.version"));
+        }
+    }
+
+    @Override
+    public String getMode() {
+        return mode.name();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return pool != null ? pool.getPoolSize() : active.get();
+    }
+
+    @Override
+    public int getLargestThreadCount() {
+        return pool != null ? pool.getLargestPoolSize() : largest.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getCompletedConnections() {
+        return completed.get();
+    }
+}
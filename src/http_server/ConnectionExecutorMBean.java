@@ -0,0 +1,48 @@
+package http_server;
+
+/**
+ * Management interface exposing the load on the connection executor over JMX.
+ */
+public interface ConnectionExecutorMBean {
+
+    /**
+     * @return The name of the execution mode in use.
+     */
+    String getMode();
+
+    /**
+     * @return The number of connections currently being handled.
+     */
+    int getActiveConnections();
+
+    /**
+     * @return The number of threads currently alive in the worker pool, or the number of
+     *         connection threads in the other modes.
+     */
+    int getThreadCount();
+
+    /**
+     * @return The highest number of threads that were alive at the same time.
+     */
+    int getLargestThreadCount();
+
+    /**
+     * @return The number of accepted connections waiting for a free worker.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return The maximum number of connections that can wait for a free worker.
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return The total number of connections that were rejected because the server was overloaded.
+     */
+    long getRejectedConnections();
+
+    /**
+     * @return The total number of connections that have been handled to completion.
+     */
+    long getCompletedConnections();
+}
@@ -0,0 +1,316 @@
+package http_server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the live connections of both engines: it limits their number, closes connections whose timeout
+ * has passed, and shuts the server down gracefully.
+ * <p>
+ * Timeouts are kept in a hashed timer wheel driven by a single thread. A connection only publishes its current
+ * deadline, which is a plain volatile write; when the wheel reaches the slot a connection was put in, it either
+ * times the connection out or moves it to the slot of its new deadline. Connections that are busy or far from
+ * their deadline are thus looked at about once per turn of the wheel, instead of rescheduling a timer on every
+ * read. Only a deadline that moves before the time the wheel looks at the connection, such as the header timeout
+ * of a request that has started to arrive, hands the connection back to the timer with {@link #deadlineChanged}.
+ */
+class ConnectionManager {
+
+    /**
+     * A connection whose lifetime is managed.
+     */
+    interface Connection {
+
+        /**
+         * Get the time at which this connection should be closed, unless something happens on it before then.
+         * @return The deadline, in the milliseconds of {@link ConnectionManager#now}, or Long.MAX_VALUE if the
+         * connection is busy processing a request and can not time out.
+         */
+        long getDeadline();
+
+        /**
+         * Get the time at which the timer looks at this connection next.
+         * @return The time set with {@link #setCheckTime}, or 0 if the connection has not been scheduled yet.
+         */
+        long getCheckTime();
+
+        /**
+         * Note the time at which the timer looks at this connection next. This is called from the timer thread.
+         * @param time The time, in the milliseconds of {@link ConnectionManager#now}.
+         */
+        void setCheckTime(long time);
+
+        /**
+         * Check whether the connection has been closed.
+         * @return true if it is closed.
+         */
+        boolean isClosed();
+
+        /**
+         * Close the connection if its deadline has passed. This is called from another thread than the one
+         * serving the connection.
+         */
+        void timeout();
+
+        /**
+         * Close the connection if it is waiting for a new request, the server is shutting down. Connections in the
+         * middle of a request close once their response has been sent. This is called from another thread.
+         */
+        void drain();
+
+        /**
+         * Close the connection right away. This is called from another thread.
+         */
+        void abort();
+    }
+
+    // The resolution of the timeouts.
+    private static final long TICK_MILLIS = 100;
+    // The number of slots of the wheel, a turn of the wheel takes 51.2 seconds.
+    private static final int WHEEL_SIZE = 512;
+
+    private volatile int maxConnections;
+    private volatile long shutdownTimeout;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<Connection> added = new ConcurrentLinkedQueue<>();
+    private final CopyOnWriteArrayList<ServerSocketChannel> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean shuttingDown;
+
+    // Only used by the timer thread.
+    private final HashSet<Connection>[] wheel;
+    private long tick;
+
+    /**
+     * Initialise a connection manager with the limits of the given configuration.
+     * @param config The server configuration.
+     */
+    ConnectionManager(ServerConfig config) {
+        this.maxConnections = config.getMaxConnections();
+        this.shutdownTimeout = config.getShutdownTimeout();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        HashSet<Connection>[] slots = new HashSet[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            slots[i] = new HashSet<>();
+        }
+        this.wheel = slots;
+    }
+
+    /**
+     * Apply the limits of a new configuration. Connections over a lowered limit are not closed, but no new ones are
+     * accepted until enough of them have closed.
+     * @param config The new server configuration.
+     */
+    void reconfigure(ServerConfig config) {
+        this.maxConnections = config.getMaxConnections();
+        this.shutdownTimeout = config.getShutdownTimeout();
+    }
+
+    /**
+     * Get the current time of the timeouts: milliseconds from an arbitrary origin, that do not jump when the
+     * wall clock is adjusted.
+     * @return The current time in milliseconds.
+     */
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Start the thread that times out connections.
+     */
+    void start() {
+        tick = now() / TICK_MILLIS;
+        Thread timer = new Thread(this::run, "http-connection-timer");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Add a listening socket, which is closed when the server shuts down so no more connections are accepted.
+     * @param listener The server socket.
+     */
+    void listen(ServerSocketChannel listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reserve room for a newly accepted connection.
+     * @return false if the connection limit has been reached or the server is shutting down, in which case the
+     * connection should be refused.
+     */
+    boolean acquire() {
+        if (shuttingDown)
+            return false;
+        if (count.incrementAndGet() > maxConnections && maxConnections > 0) {
+            count.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give back the room reserved for a connection that could not be set up.
+     */
+    void release() {
+        count.decrementAndGet();
+    }
+
+    /**
+     * Start managing a connection, for which room was reserved with {@link #acquire}.
+     * @param connection The connection.
+     */
+    void register(Connection connection) {
+        connections.add(connection);
+        added.add(connection);
+    }
+
+    /**
+     * Tell the timer about the new deadline of a connection, after it has been published. If the timer would look
+     * at the connection too late for the deadline, the connection is scheduled again. This may be called from any
+     * thread.
+     * @param connection The connection.
+     * @param deadline The new deadline of the connection.
+     */
+    void deadlineChanged(Connection connection, long deadline) {
+        // Deadlines in the tick before the check time are in the slot of the check time already.
+        if (deadline <= connection.getCheckTime() - TICK_MILLIS)
+            added.add(connection);
+    }
+
+    /**
+     * Stop managing a connection that has been closed, giving back its room.
+     * @param connection The connection.
+     */
+    void closed(Connection connection) {
+        if (connections.remove(connection))
+            count.decrementAndGet();
+    }
+
+    /**
+     * Check whether the server is shutting down, in which case connections close after their current request.
+     * @return true if the server is shutting down.
+     */
+    boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Get the number of live connections.
+     * @return The number of connections, including those that were accepted but not registered yet.
+     */
+    int size() {
+        return count.get();
+    }
+
+    /**
+     * Shut down gracefully: stop accepting connections, close the idle ones, and wait for the others to finish
+     * their current request, until the shutdown timeout. Connections that are still open then are closed.
+     */
+    void shutdown() {
+        shuttingDown = true;
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                // Nothing left to clean up.
+            }
+        }
+        for (Connection connection : connections) {
+            connection.drain();
+        }
+        long deadline = now() + shutdownTimeout;
+        while (!connections.isEmpty() && now() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Connection connection : connections) {
+            connection.abort();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+                long now = now();
+                Connection connection;
+                while ((connection = added.poll()) != null) {
+                    schedule(connection, now);
+                }
+                // Catch up with the ticks that have passed, e.g. after a long GC pause.
+                long target = now / TICK_MILLIS;
+                while (tick < target) {
+                    tick++;
+                    expire(wheel[(int) (tick % WHEEL_SIZE)], now);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    private void expire(HashSet<Connection> slot, long now) {
+        if (slot.isEmpty())
+            return;
+        // Take the connections out of the slot first, they may be put back into it.
+        Connection[] due = slot.toArray(new Connection[0]);
+        slot.clear();
+        for (Connection connection : due) {
+            if (connection.isClosed())
+                continue;
+            if (connection.getDeadline() <= now) {
+                connection.timeout();
+                // Check on it again shortly, in case it was busy after all or did not close yet.
+                schedule(connection, now + TICK_MILLIS);
+            } else {
+                schedule(connection, now);
+            }
+        }
+    }
+
+    /**
+     * Put a connection in the slot of its deadline, or the last slot of the wheel if it is further away, taking it
+     * out of the slot it was in.
+     */
+    private void schedule(Connection connection, long now) {
+        wheel[slot(connection.getCheckTime())].remove(connection);
+        long time = checkTime(connection.getDeadline(), now);
+        while (true) {
+            connection.setCheckTime(time);
+            // The connection only asks to be scheduled again if it sees the new check time, look at its deadline
+            // again in case it moved while the check time was not published yet.
+            long again = checkTime(connection.getDeadline(), now);
+            if (again >= time)
+                break;
+            time = again;
+        }
+        wheel[slot(time)].add(connection);
+    }
+
+    /**
+     * Get the time of the slot the timer should look at a connection in, given its deadline.
+     */
+    private long checkTime(long deadline, long now) {
+        long ticks = deadline == Long.MAX_VALUE ? WHEEL_SIZE - 1 : (Math.max(deadline, now) + TICK_MILLIS - 1) / TICK_MILLIS - tick;
+        ticks = Math.max(1, Math.min(WHEEL_SIZE - 1, ticks));
+        return (tick + ticks) * TICK_MILLIS;
+    }
+
+    private static int slot(long time) {
+        return (int) (time / TICK_MILLIS % WHEEL_SIZE);
+    }
+}
@@ -0,0 +1,232 @@
+package http_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Content codings the server can send: negotiation with the accept-encoding header of a request, and gzip
+ * compression of files for clients that accept it. Every thread reuses its own deflater, so compressing does
+ * not allocate native memory per file.
+ */
+final class ContentEncoding {
+
+    static final String GZIP = "gzip";
+    static final String BROTLI = "br";
+
+    // The codings of precompressed files that are looked for next to a requested file, in order of preference.
+    static final String[] PRECOMPRESSED = {BROTLI, GZIP};
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<>();
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Check whether a client accepts a content coding, following the quality values in its accept-encoding header.
+     * @param acceptEncoding The accept-encoding header of the request, or null if there is none.
+     * @param coding The content coding, e.g. "gzip".
+     * @return true if the coding is listed, or covered by "*", with a quality above zero.
+     */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null)
+            return false;
+        // The elements are scanned in place, only their parameters, which are rare, become strings.
+        double wildcard = 0;
+        int start = 0;
+        while (start <= acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0)
+                end = acceptEncoding.length();
+            int semicolon = acceptEncoding.indexOf(';', start);
+            if (semicolon >= end)
+                semicolon = -1;
+            int nameStart = start;
+            int nameEnd = semicolon < 0 ? end : semicolon;
+            while (nameStart < nameEnd && acceptEncoding.charAt(nameStart) <= ' ')
+                nameStart++;
+            while (nameEnd > nameStart && acceptEncoding.charAt(nameEnd - 1) <= ' ')
+                nameEnd--;
+            double quality = semicolon < 0 ? 1 : quality(acceptEncoding.substring(semicolon + 1, end));
+            int length = nameEnd - nameStart;
+            if (length == coding.length() && acceptEncoding.regionMatches(true, nameStart, coding, 0, length))
+                return quality > 0;
+            if (length == 1 && acceptEncoding.charAt(nameStart) == '*')
+                wildcard = quality;
+            start = end + 1;
+        }
+        return wildcard > 0;
+    }
+
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Get the file name extension of precompressed files in a content coding.
+     * @param coding The content coding, one of {@link #PRECOMPRESSED}.
+     * @return The extension, e.g. ".gz".
+     */
+    static String extension(String coding) {
+        return GZIP.equals(coding) ? ".gz" : "." + coding;
+    }
+
+    /**
+     * Check whether content of a type is worth compressing. Images and other binary formats are compressed already.
+     * @param contentType The content-type of the content.
+     * @return true for text formats.
+     */
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.contains("javascript") || contentType.contains("json")
+                || contentType.contains("xml");
+    }
+
+    /**
+     * Compress bytes in the gzip format.
+     * @param data The bytes to compress.
+     * @param level The compression level, from 1 (fastest) to 9 (smallest).
+     * @return The gzip file holding the bytes.
+     */
+    static byte[] gzip(byte[] data, int level) {
+        Deflater deflater = DEFLATERS.get();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            DEFLATERS.set(deflater);
+        } else {
+            deflater.reset();
+            deflater.setLevel(level);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+
+        byte[] output = Arrays.copyOf(GZIP_HEADER, GZIP_HEADER.length + data.length / 2 + 64);
+        int length = GZIP_HEADER.length;
+        while (!deflater.finished()) {
+            if (length == output.length)
+                output = Arrays.copyOf(output, output.length * 2);
+            length += deflater.deflate(output, length, output.length - length);
+        }
+
+        // The trailer holds the CRC-32 and the size of the uncompressed data, little endian.
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        output = Arrays.copyOf(output, length + 8);
+        writeInt(output, length, (int) crc.getValue());
+        writeInt(output, length + 4, data.length);
+        return output;
+    }
+
+    /**
+     * Open a file compressed in the gzip format while it is read, for a file that is too large to compress at once.
+     * Every read compresses as much of the file as fits in the buffer it is given, so a response can send the first
+     * chunks before the rest of the file has been compressed, and only compresses more once the connection has
+     * accepted what it got.
+     * @param file The file to compress.
+     * @param level The compression level, from 1 (fastest) to 9 (smallest).
+     * @return A channel reading the gzip file, which must be closed to release the file and the deflater.
+     * @throws IOException The file could not be opened.
+     */
+    static ReadableByteChannel gzipStream(Path file, int level) throws IOException {
+        return new GzipStream(FileChannel.open(file, StandardOpenOption.READ), level);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * A file compressed in the gzip format as it is read. Reads never wait for anything but the file, and return
+     * at least one byte until the end of the gzip file.
+     */
+    private static class GzipStream implements ReadableByteChannel {
+
+        private static final int BUFFER_SIZE = 16 * 1024;
+
+        private final FileChannel file;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] output = new byte[BUFFER_SIZE];
+        private long size;
+        private boolean inputEnded;
+        private boolean headerWritten;
+        private boolean trailerWritten;
+
+        GzipStream(FileChannel file, int level) {
+            this.file = file;
+            this.deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (trailerWritten)
+                return -1;
+            int start = dst.position();
+            if (!headerWritten) {
+                if (dst.remaining() < GZIP_HEADER.length)
+                    throw new IOException("The buffer is too small for the gzip header.");
+                dst.put(GZIP_HEADER);
+                headerWritten = true;
+            }
+            while (dst.hasRemaining()) {
+                if (deflater.finished()) {
+                    // The trailer holds the CRC-32 and the size of the uncompressed data, little endian.
+                    if (dst.remaining() < 8)
+                        break;
+                    byte[] trailer = new byte[8];
+                    writeInt(trailer, 0, (int) crc.getValue());
+                    writeInt(trailer, 4, (int) size);
+                    dst.put(trailer);
+                    trailerWritten = true;
+                    break;
+                }
+                if (deflater.needsInput() && !inputEnded) {
+                    input.clear();
+                    int read = file.read(input);
+                    if (read < 0) {
+                        inputEnded = true;
+                        deflater.finish();
+                    } else {
+                        crc.update(input.array(), 0, read);
+                        deflater.setInput(input.array(), 0, read);
+                        size += read;
+                    }
+                }
+                int count = deflater.deflate(output, 0, Math.min(output.length, dst.remaining()));
+                dst.put(output, 0, count);
+            }
+            return dst.position() - start;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            file.close();
+        }
+    }
+}
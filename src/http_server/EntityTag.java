@@ -0,0 +1,52 @@
+package http_server;
+
+/**
+ * Entity tags identifying a version of a file (RFC 7232, section 2.3), and the matching of the if-match and
+ * if-none-match headers against them. Tags are derived from the size and modification time of a file, so they
+ * can be computed from a stat, without reading the file.
+ */
+final class EntityTag {
+
+    private EntityTag() {
+    }
+
+    /**
+     * Get the strong entity tag of a version of a file.
+     * @param size The size of the file.
+     * @param lastModified The modification time of the file, in milliseconds since the epoch.
+     * @param coding The content coding the file is sent in, if the server encodes it, or null.
+     * @return The entity tag, including the quotes.
+     */
+    static String of(long size, long lastModified, String coding) {
+        StringBuilder tag = new StringBuilder(32).append('"')
+                .append(Long.toHexString(lastModified)).append('-').append(Long.toHexString(size));
+        if (coding != null)
+            tag.append('-').append(coding);
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Check whether an if-match or if-none-match header matches the current entity tag of a resource.
+     * @param header The header value: "*" or a list of entity tags.
+     * @param tag The current entity tag, or null if the resource does not exist.
+     * @param weak Whether to use the weak comparison, which ignores the "W/" prefix, as if-none-match does.
+     * @return true if one of the listed tags matches, or the header is "*" and the resource exists.
+     */
+    static boolean matches(String header, String tag, boolean weak) {
+        if (tag == null)
+            return false;
+        if (header.trim().equals("*"))
+            return true;
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                if (!weak)
+                    continue;
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(tag))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,138 @@
+package http_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread serving many non-blocking connections.
+ */
+class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final RequestDispatcher dispatcher;
+    private volatile ServerConfig config;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final ConnectionManager manager;
+    // Work handed to this loop by other threads, such as closing a connection that timed out.
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // Shared by all connections of this loop, connections only keep what they could not process yet.
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * Initialise an event loop.
+     * @param dispatcher The dispatcher that turns requests into responses.
+     * @param config The server configuration.
+     * @param metrics The metrics to count the requests, bytes and connections in.
+     * @param accessLog The log to write an entry for every request to.
+     * @param manager The manager of the connections, which times them out.
+     * @throws IOException The selector could not be opened.
+     */
+    EventLoop(RequestDispatcher dispatcher, ServerConfig config, ServerMetrics metrics, AccessLog accessLog,
+              ConnectionManager manager) throws IOException {
+        this.selector = Selector.open();
+        this.dispatcher = dispatcher;
+        this.config = config;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.manager = manager;
+    }
+
+    /**
+     * Serve the connections accepted from now on with a new configuration. Open connections keep their settings.
+     * @param config The new server configuration.
+     */
+    void reconfigure(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Hand a newly accepted connection to this event loop. This may be called from any thread.
+     * @param channel The accepted connection.
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the thread of this event loop. This may be called from any thread.
+     * @param task The task, which must not block.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Serve the connections of this loop, forever.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select(1000);
+                registerNewChannels();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        // We can no longer use this connection, close it.
+                        connection.close();
+                    }
+                }
+            } catch (Throwable exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                ConnectionContext context = new ConnectionContext(dispatcher, config, metrics, accessLog,
+                        channel.socket().getInetAddress().getHostAddress(), manager);
+                NioConnection connection = new NioConnection(channel, key, this, context, metrics, manager);
+                key.attach(connection);
+                manager.register(connection);
+            } catch (IOException e) {
+                manager.release();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing left to clean up.
+                }
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package http_server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, in the manner of HdrHistogram: every power of two is split into
+ * 16 linear sub-buckets, so a recorded value is off by at most 1/16 (about 6%), from nanoseconds up to centuries,
+ * in a fixed array of counts. Recording is a few shifts and an atomic increment, without allocation or locks.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Record a duration.
+     * @param nanos The duration in nanoseconds. Negative durations, e.g. from a clock adjustment, count as 0.
+     */
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Get the number of recorded durations.
+     * @return The number of durations.
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of the recorded durations.
+     * @return The sum in nanoseconds.
+     */
+    long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Estimate a quantile of the recorded durations. Durations recorded while this runs may or may not be counted.
+     * @param quantile The quantile, from 0 to 1, e.g. 0.99.
+     * @return The highest duration that falls in the same sub-bucket as the quantile, in nanoseconds, or 0 if no
+     * durations have been recorded.
+     */
+    long getQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return highestValue(i);
+        }
+        return highestValue(counts.length() - 1);
+    }
+
+    /**
+     * Find the bucket of a value: values below 16 have a bucket each, larger values fall in one of the 16 buckets
+     * between their highest power of two and the next.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lowest = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
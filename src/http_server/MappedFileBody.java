@@ -0,0 +1,54 @@
+package http_server;
+
+import http_datastructures.Body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A body holding a memory mapped file. The mapping is written to the connection directly, together with the
+ * head of the response, and released to the cache when the body is closed.
+ */
+class MappedFileBody extends Body {
+
+    private final MappedFileCache cache;
+    private final long length;
+    private MappedFileCache.Mapping mapping;
+
+    /**
+     * Create a body for a mapped file.
+     * @param cache The cache the mapping was acquired from.
+     * @param mapping The mapping, which this body releases when it is closed.
+     */
+    MappedFileBody(MappedFileCache cache, MappedFileCache.Mapping mapping) {
+        this.cache = cache;
+        this.mapping = mapping;
+        this.length = mapping.size;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, long position) throws IOException {
+        ByteBuffer view = mapping.contents();
+        view.position((int) position);
+        return channel.write(view);
+    }
+
+    @Override
+    public ByteBuffer asByteBuffer() {
+        return mapping.contents();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mapping != null) {
+            cache.release(mapping);
+            mapping = null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package http_server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Memory mappings of large static files, shared by all connections. A file is mapped once and sent from the mapping
+ * until it changes, so repeated requests neither copy it into the heap nor read it again. The total size of the
+ * mappings is limited, evicting the least recently used files first. A mapping is unmapped as soon as it has been
+ * evicted or found outdated and no response is still sending it.
+ * Files are replaced by the server with a move, so a mapping keeps showing the old version. Other programs should
+ * do the same: truncating a file that is mapped makes reading the missing part fail.
+ */
+class MappedFileCache {
+
+    /**
+     * A mapped file. It is counted how many responses use the mapping, besides the cache itself.
+     */
+    static class Mapping {
+        private final MappedByteBuffer buffer;
+        final long lastModified;
+        final long size;
+        private volatile long checkedAt;
+        private int references = 1;
+
+        Mapping(MappedByteBuffer buffer, long lastModified, long size, long checkedAt) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checkedAt = checkedAt;
+        }
+
+        /**
+         * Get the contents of the file.
+         * @return A new read-only buffer over the mapping, which must not be used after the mapping is released.
+         */
+        ByteBuffer contents() {
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    // Unmaps a buffer right away instead of when it is garbage collected, if the JDK allows it.
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Leave unmapping to the garbage collector.
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final long maxBytes;
+    private final long minFileSize;
+    private final long revalidateInterval;
+
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean closed;
+
+    /**
+     * Initialise a cache with the limits from the given configuration.
+     * @param config The server configuration.
+     */
+    MappedFileCache(ServerConfig config) {
+        this.maxBytes = config.getMmapMaxBytes();
+        this.minFileSize = config.getMmapMinFileSize();
+        this.revalidateInterval = config.getCacheRevalidateInterval();
+    }
+
+    /**
+     * Get the mapping of a file, mapping it if it is large enough and fits.
+     * Every mapping that is returned must be handed to {@link #release} once it is no longer used.
+     * @param file The file.
+     * @return The mapping, or null if the file is not mapped.
+     * @throws IOException The file could not be mapped.
+     */
+    Mapping acquire(File file) throws IOException {
+        if (maxBytes <= 0)
+            return null;
+        Path path = file.toPath().toAbsolutePath().normalize();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null) {
+                if (now - mapping.checkedAt <= revalidateInterval) {
+                    mapping.references++;
+                    return mapping;
+                }
+            }
+        }
+
+        long lastModified = file.lastModified();
+        long size = file.length();
+        synchronized (this) {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null) {
+                if (mapping.lastModified == lastModified && mapping.size == size) {
+                    mapping.checkedAt = now;
+                    mapping.references++;
+                    return mapping;
+                }
+                remove(path);
+            }
+        }
+        if (size < minFileSize || size > maxBytes || size > Integer.MAX_VALUE)
+            return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        Mapping mapping = new Mapping(buffer, lastModified, size, now);
+        synchronized (this) {
+            if (closed) {
+                unmap(buffer);
+                return null;
+            }
+            remove(path);
+            mappings.put(path, mapping);
+            totalBytes += size;
+
+            // Evict the least recently used files until we are within budget again.
+            Iterator<Mapping> iterator = mappings.values().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Mapping eldest = iterator.next();
+                if (eldest == mapping)
+                    continue;
+                iterator.remove();
+                totalBytes -= eldest.size;
+                release(eldest);
+            }
+            mapping.references++;
+        }
+        return mapping;
+    }
+
+    /**
+     * Stop using a mapping returned by {@link #acquire}.
+     * @param mapping The mapping.
+     */
+    synchronized void release(Mapping mapping) {
+        if (--mapping.references == 0)
+            unmap(mapping.buffer);
+    }
+
+    /**
+     * Drop the mapping of a file, e.g. because it is about to be written.
+     * @param path The path of the file.
+     */
+    synchronized void invalidate(Path path) {
+        remove(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Drop all mappings, e.g. because the cache is replaced after the configuration changed. Mappings that
+     * responses are still sending are unmapped when they are released, files are no longer mapped afterwards.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Mapping mapping : mappings.values()) {
+            release(mapping);
+        }
+        mappings.clear();
+        totalBytes = 0;
+    }
+
+    private void remove(Path path) {
+        Mapping mapping = mappings.remove(path);
+        if (mapping != null) {
+            totalBytes -= mapping.size;
+            release(mapping);
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // The garbage collector unmaps it eventually.
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package http_server;
+
+import http_datastructures.*;
+
+import java.util.Map;
+
+/**
+ * Serves the metrics of the server in the Prometheus text format, for a scraper to collect.
+ */
+class MetricsHandler implements RequestHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerMetrics metrics;
+
+    /**
+     * Initialise a handler serving the given metrics.
+     * @param metrics The metrics of the server.
+     */
+    MetricsHandler(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response handle(Request request, Map<String, String> parameters) {
+        Response response = new Response(request.getVersion(), 200, "OK", metrics.toPrometheusText(), CONTENT_TYPE);
+        response.addHeader("cache-control", "no-store");
+        return response;
+    }
+}
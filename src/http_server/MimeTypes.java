@@ -0,0 +1,205 @@
+package http_server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The media types of the static files, by file extension. The server knows the common web formats; a file in the
+ * format of mime.types can add types or change them. Every line of such a file holds a type followed by its
+ * extensions, e.g. "text/html html htm", and "#" starts a comment. The type may carry attributes, separated by ";"
+ * without spaces:
+ * <ul>
+ *     <li>charset=NAME, the charset added to the content-type. Text, JSON, JavaScript and XML types are utf-8 unless
+ *     they say otherwise, "charset=" leaves the charset out.</li>
+ *     <li>compress or nocompress, whether files of the type are compressed for clients that accept it. By default
+ *     text, JSON, JavaScript and XML types are.</li>
+ *     <li>max-age=SECONDS, how long clients may cache files of the type without revalidating them, instead of the
+ *     cache-control setting of the server. This suits types that are only served under versioned names.</li>
+ * </ul>
+ * Types are looked up in a hash map, once per request for a file.
+ */
+class MimeTypes {
+
+    /**
+     * A media type and how files of it are served.
+     */
+    static final class Type {
+        private final String contentType;
+        private final boolean compressible;
+        private final String cacheControl;
+
+        private Type(String contentType, boolean compressible, String cacheControl) {
+            this.contentType = contentType;
+            this.compressible = compressible;
+            this.cacheControl = cacheControl;
+        }
+
+        /**
+         * Get the value of the content-type header for files of this type.
+         * @return The media type, with its charset if it has one.
+         */
+        String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Check whether files of this type are worth compressing.
+         * @return true if they are compressed for clients that accept it.
+         */
+        boolean isCompressible() {
+            return compressible;
+        }
+
+        /**
+         * Get the value of the cache-control header for files of this type.
+         * @return The header value, or an empty string for no header.
+         */
+        String getCacheControl() {
+            return cacheControl;
+        }
+    }
+
+    // The types the server knows, in the format of a mime.types file.
+    private static final String[] DEFAULTS = {
+            "text/html html htm",
+            "text/css css",
+            "text/javascript js mjs",
+            "text/plain txt text log",
+            "text/markdown md",
+            "text/csv csv",
+            "text/xml xml",
+            "application/json json map",
+            "application/manifest+json webmanifest",
+            "application/wasm;compress wasm",
+            "application/pdf pdf",
+            "application/zip zip",
+            "application/gzip gz",
+            "application/octet-stream bin",
+            "image/svg+xml svg",
+            "image/png png",
+            "image/jpeg jpg jpeg",
+            "image/gif gif",
+            "image/bmp bmp",
+            "image/vnd.wap.wbmp wbmp",
+            "image/webp webp",
+            "image/avif avif",
+            "image/x-icon;compress ico",
+            "font/woff woff",
+            "font/woff2 woff2",
+            "font/ttf;compress ttf",
+            "font/otf;compress otf",
+            "audio/mpeg mp3",
+            "audio/ogg ogg oga",
+            "audio/wav wav",
+            "video/mp4 mp4 m4v",
+            "video/webm webm",
+            "video/ogg ogv",
+    };
+
+    private final HashMap<String, Type> types = new HashMap<>(128);
+    // The type of files with an unknown extension.
+    private final Type unknown;
+
+    /**
+     * Initialise the registry with the types the server knows, and those in a file.
+     * @param file The path of a file in the format of mime.types, or an empty string for none.
+     * @param cacheControl The cache-control header of types without a max-age, an empty string for none.
+     * @throws IllegalArgumentException The file could not be read or has a malformed line.
+     */
+    MimeTypes(String file, String cacheControl) {
+        this.unknown = new Type("application/octet-stream", false, cacheControl);
+        for (String line : DEFAULTS) {
+            parse(line, cacheControl);
+        }
+        if (file.isEmpty())
+            return;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                parse(line.trim(), cacheControl);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the MIME types from " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Add the type on a line of a mime.types file.
+     */
+    private void parse(String line, String cacheControl) {
+        String[] fields = line.split("\\s+");
+        if (fields.length < 2)
+            return;
+        String[] attributes = fields[0].split(";");
+        String mediaType = attributes[0].toLowerCase(Locale.ROOT);
+        if (mediaType.indexOf('/') <= 0)
+            throw new IllegalArgumentException("Invalid media type: " + line);
+        boolean text = mediaType.startsWith("text/") || mediaType.endsWith("json") || mediaType.endsWith("+xml")
+                || mediaType.endsWith("/xml") || mediaType.endsWith("javascript");
+        String charset = text ? "utf-8" : "";
+        boolean compressible = ContentEncoding.isCompressible(mediaType);
+        String typeCacheControl = cacheControl;
+        for (int i = 1; i < attributes.length; i++) {
+            String attribute = attributes[i].trim();
+            if (attribute.startsWith("charset=")) {
+                charset = attribute.substring(8);
+            } else if (attribute.equals("compress")) {
+                compressible = true;
+            } else if (attribute.equals("nocompress")) {
+                compressible = false;
+            } else if (attribute.startsWith("max-age=")) {
+                try {
+                    typeCacheControl = "max-age=" + Integer.parseUnsignedInt(attribute.substring(8));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid max-age: " + line);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown attribute " + attribute + ": " + line);
+            }
+        }
+        Type type = new Type(charset.isEmpty() ? mediaType : mediaType + "; charset=" + charset, compressible,
+                typeCacheControl);
+        for (int i = 1; i < fields.length; i++) {
+            types.put(fields[i].toLowerCase(Locale.ROOT), type);
+        }
+    }
+
+    /**
+     * Get the type of a file by its extension.
+     * @param name The name or path of the file.
+     * @return The type, application/octet-stream if the extension is not known.
+     */
+    Type forFile(String name) {
+        String extension = extension(name);
+        if (extension.isEmpty())
+            return unknown;
+        Type type = types.get(extension);
+        if (type == null) {
+            // Most extensions are lower case already, only convert those that are not.
+            String lower = extension.toLowerCase(Locale.ROOT);
+            if (!lower.equals(extension))
+                type = types.get(lower);
+        }
+        return type == null ? unknown : type;
+    }
+
+    /**
+     * Get the extension of a file, as it is written.
+     * @param name The name or path of the file.
+     * @return The text after the last "." of the name, or an empty string if the name has no extension.
+     */
+    static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || name.indexOf('/', dot) >= 0)
+            return "";
+        return name.substring(dot + 1);
+    }
+}
@@ -0,0 +1,150 @@
+package http_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A single non-blocking HTTP connection. Incoming bytes are fed to a parser as they arrive, and every
+ * request is answered as soon as it is complete. Responses are queued and written when the channel
+ * is ready for them.
+ */
+class NioConnection implements ConnectionManager.Connection {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final EventLoop loop;
+
+    // Its parser holds the part of a request that has been received, the connection itself does not buffer input.
+    private final ConnectionContext context;
+    private final ServerMetrics metrics;
+    private final ConnectionManager manager;
+    private volatile boolean closed;
+    // When the connection manager looks at this connection next.
+    private volatile long checkTime;
+
+    /**
+     * Initialise a connection.
+     * @param channel The channel of this connection, in non-blocking mode.
+     * @param key The selection key of the channel.
+     * @param loop The event loop serving the connection.
+     * @param context The context that processes the requests of the connection.
+     * @param metrics The metrics to count the bytes and connections in.
+     * @param manager The manager of the connection, which closes it when it times out.
+     */
+    NioConnection(SocketChannel channel, SelectionKey key, EventLoop loop, ConnectionContext context,
+                  ServerMetrics metrics, ConnectionManager manager) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.context = context;
+        this.metrics = metrics;
+        this.manager = manager;
+        context.setConnection(this);
+        metrics.connectionOpened();
+    }
+
+    /**
+     * Read the available bytes from the channel and answer every request that is complete.
+     * The responses to requests that were pipelined are flushed together once all of them are queued.
+     * @param buffer A buffer to read into. Its contents are not used after this call returns.
+     * @throws IOException Reading from or writing to the channel failed.
+     */
+    void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        metrics.addBytesReceived(read);
+        context.working();
+        buffer.flip();
+
+        while (!context.isCloseRequested() && context.processRequest(buffer)) {
+            // Keep going while the buffer holds complete requests.
+        }
+        write();
+    }
+
+    /**
+     * Write as much of the queued responses as the channel accepts, coalesced into as few writes as possible.
+     * @throws IOException Writing to the channel failed.
+     */
+    void write() throws IOException {
+        if (!context.getOutput().flush(channel)) {
+            // The socket buffer is full, wait until the channel is writable again. Stop reading in
+            // the meantime so a client can not make us queue an unbounded amount of responses.
+            key.interestOps(SelectionKey.OP_WRITE);
+            context.waiting();
+            return;
+        }
+        if (context.isCloseRequested()) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+            context.waiting();
+        }
+    }
+
+    /**
+     * Close this connection.
+     */
+    void close() {
+        if (closed)
+            return;
+        closed = true;
+        metrics.connectionClosed();
+        manager.closed(this);
+        key.cancel();
+        context.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    @Override
+    public long getDeadline() {
+        return context.getDeadline();
+    }
+
+    @Override
+    public long getCheckTime() {
+        return checkTime;
+    }
+
+    @Override
+    public void setCheckTime(long time) {
+        checkTime = time;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void timeout() {
+        // Check again on the thread of the loop, the connection may have read a request in the meantime.
+        loop.execute(() -> {
+            if (context.getDeadline() <= ConnectionManager.now())
+                close();
+        });
+    }
+
+    @Override
+    public void drain() {
+        loop.execute(() -> {
+            if (context.isIdle())
+                close();
+        });
+    }
+
+    @Override
+    public void abort() {
+        loop.execute(this::close);
+    }
+}
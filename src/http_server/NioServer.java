@@ -0,0 +1,68 @@
+package http_server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP server engine. Connections are spread over a fixed number of event loops,
+ * each multiplexing its connections over a single selector thread, so an idle connection only
+ * costs its buffers instead of a blocked thread.
+ */
+class NioServer {
+
+    private final ServerConfig config;
+    private final RequestDispatcher dispatcher;
+    private final EventLoop[] eventLoops;
+    private final ConnectionManager manager;
+    private final ServerMetrics metrics;
+
+    /**
+     * Initialise a non-blocking server with the given configuration.
+     * @param config The server configuration.
+     * @param dispatcher The dispatcher that turns requests into responses.
+     * @param metrics The metrics to count the requests, bytes and connections in.
+     * @param accessLog The log to write an entry for every request to.
+     * @param manager The manager of the connections, which limits and times them out.
+     * @throws IOException A selector could not be opened.
+     */
+    NioServer(ServerConfig config, RequestDispatcher dispatcher, ServerMetrics metrics, AccessLog accessLog,
+              ConnectionManager manager) throws IOException {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.manager = manager;
+        this.metrics = metrics;
+        this.eventLoops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(dispatcher, config, metrics, accessLog, manager);
+        }
+    }
+
+    /**
+     * Serve the connections accepted from now on with a new configuration. Open connections keep their settings.
+     * @param config The new server configuration.
+     */
+    void reconfigure(ServerConfig config) {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.reconfigure(config);
+        }
+    }
+
+    /**
+     * Start the event loops and the acceptors on the configured port, which run until the server shuts down.
+     * Accepted connections are handed to the event loops in a round robin fashion, connections over the
+     * connection limit are refused.
+     * @throws IOException The server socket could not be opened.
+     */
+    void run() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "http-event-loop-" + i);
+            thread.start();
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        Acceptor.start(config, manager, metrics, channel -> {
+            eventLoops[Math.floorMod(next.getAndIncrement(), eventLoops.length)].register(channel);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,188 @@
+package http_server;
+
+import http_datastructures.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Turns requests into responses. This holds the request processing that is shared by the
+ * blocking and the non-blocking server engines, independent of how the connection is read from.
+ * Requests are routed by their path to the handlers mounted on the {@link Router}; the files in the
+ * document root are served for the paths that no other route matches.
+ */
+class RequestDispatcher implements BodySink.Factory {
+
+    // The settings of the static files and their caches.
+    private static final String[] FILE_SETTINGS = {
+            "http.docroot", "http.cache.maxBytes", "http.cache.maxFileSize", "http.cache.revalidateMillis",
+            "http.mmap.maxBytes", "http.mmap.minFileSize", "http.compression.minSize", "http.compression.level",
+            "http.cacheControl", "http.mimeTypes"};
+
+    private final Router router = new Router();
+    // Replaced when the settings of the static files change, the route to it stays mounted.
+    private volatile StaticFileHandler files;
+    // The configuration the static files are served with.
+    private ServerConfig config;
+
+    /**
+     * Initialise a dispatcher with the given configuration.
+     * @param config The server configuration.
+     */
+    RequestDispatcher(ServerConfig config) {
+        this.config = config;
+        files = new StaticFileHandler(config);
+        router.add(null, "/*", new RequestHandler() {
+            @Override
+            public Response handle(Request request, Map<String, String> parameters)
+                    throws IOException, IllegalHeaderException, IllegalRequestException {
+                return files.handle(request, parameters);
+            }
+
+            @Override
+            public BodySink openBodySink(Request request, Map<String, String> parameters) {
+                return files.openBodySink(request, parameters);
+            }
+        });
+    }
+
+    /**
+     * Serve the static files with a new configuration, e.g. another document root or cache budget. If none of
+     * their settings changed the files are served as before, with the files that are cached. Otherwise requests
+     * that are being handled finish with the old settings, and the file caches start out empty.
+     * @param config The new server configuration.
+     */
+    synchronized void reconfigure(ServerConfig config) {
+        Map<String, String> before = this.config.getSettings();
+        Map<String, String> after = config.getSettings();
+        this.config = config;
+        boolean changed = false;
+        for (String key : FILE_SETTINGS) {
+            changed |= !Objects.equals(before.get(key), after.get(key));
+        }
+        if (!changed)
+            return;
+        StaticFileHandler old = files;
+        files = new StaticFileHandler(config);
+        old.close();
+    }
+
+    /**
+     * Mount a handler for the requests on a route, in front of the static files.
+     * @param method The request method to handle, or null for all methods.
+     * @param pattern The pattern of the paths to handle, see {@link Router}.
+     * @param handler The handler.
+     */
+    void mount(RequestType method, String pattern, RequestHandler handler) {
+        router.add(method, pattern, handler);
+    }
+
+    /**
+     * Processes the request and returns a response object of this servers response to that request.
+     * @param request The given request
+     * @return the response from this server.
+     * @throws IOException There is a exception when accessing the file that is requested
+     * @throws IllegalHeaderException The request has an illegal or malformed header
+     * @throws IllegalRequestException The request is illegal or malformed
+     */
+    Response getResponse(Request request) throws IOException, IllegalHeaderException, IllegalRequestException {
+        try {
+            return process(request);
+        } finally {
+            // Remove what is left of an uploaded body that was not stored
+            if (request.getBodySink() != null)
+                request.getBodySink().abort();
+        }
+    }
+
+    /**
+     * Let the handler of the request choose where its body goes, e.g. a temporary file for an upload, so it is not
+     * held in memory.
+     * @param request The request, with its request line and headers.
+     * @return The sink to write the body to, or null to keep the body in memory.
+     */
+    @Override
+    public BodySink open(Request request) {
+        try {
+            Router.Route route = router.find(getPath(request));
+            RequestHandler handler = route == null ? null : route.getHandler(request.getType());
+            if (handler == null)
+                return null;
+            return handler.openBodySink(request, route.getParameters());
+        } catch (IllegalRequestException e) {
+            // The request is rejected when it is processed.
+            return null;
+        }
+    }
+
+    private Response process(Request request) throws IOException, IllegalHeaderException, IllegalRequestException {
+
+        if (request.getVersion() == HTTPVersion.HTTP11 && request.getHeader("host") == null)
+            return new Response(HTTPVersion.HTTP11, 400, "Bad Request", "HTTP 1.1 requests must include the Host: header\r\n", "text/plain");
+
+        Router.Route route = router.find(getPath(request));
+        if (route == null)
+            return new Response(request.getVersion(), 404, "Not Found", "The requested file could not be found on this server.\r\n", "text/plain");
+        RequestHandler handler = route.getHandler(request.getType());
+        if (handler == null) {
+            Response response = new Response(request.getVersion(), 405, "Method Not Allowed");
+            StringBuilder allow = new StringBuilder();
+            for (RequestType method : route.getMethods()) {
+                if (allow.length() > 0)
+                    allow.append(", ");
+                allow.append(method.name());
+            }
+            response.addHeader("allow", allow.toString());
+            return response;
+        }
+        return handler.handle(request, route.getParameters());
+    }
+
+    /**
+     * Returns the path of the requested resource that requests are routed by.
+     * @param request The request for the resource.
+     * @return The path, starting with "/", without query.
+     * @throws IllegalRequestException The request target is malformed
+     */
+    private String getPath(Request request) throws IllegalRequestException {
+        String path = request.getPath();
+        if (path.startsWith("/http://")) {
+            try {
+                path = new URI(path.substring(1)).getRawPath();
+            } catch (URISyntaxException e) {
+                throw new IllegalRequestException();
+            }
+            if (!path.startsWith("/"))
+                path = "/" + path;
+        }
+        int query = path.indexOf('?');
+        if (query >= 0)
+            path = path.substring(0, query);
+        return path;
+    }
+
+    /**
+     * Returns the response that should be sent when processing a request failed with the given error.
+     * @param e The error that occurred while reading or processing a request.
+     * @return a response describing the error to the client.
+     */
+    static Response errorResponse(Throwable e) {
+        if (e instanceof IllegalHeaderException) {
+            return new Response(HTTPVersion.HTTP11, 400, "Bad Request", "Your HTTP request headers were malformed and could not be parsed. Error produced on line: " + ((IllegalHeaderException) e).getLine() + "\r\n", "text/plain");
+        } else if (e instanceof IllegalRequestException) {
+            return new Response(HTTPVersion.HTTP11, 400, "Bad Request", "Your request was not a valid HTTP request and could not be parsed.\r\n", "text/plain");
+        } else if (e instanceof UnsupportedHTTPVersionException) {
+            return new Response(HTTPVersion.HTTP11, 400, "Bad Request", "The provided HTTP version is not supported by this server.\r\n", "text/plain");
+        } else if (e instanceof PayloadTooLargeException) {
+            return new Response(HTTPVersion.HTTP11, 413, "Payload Too Large", "The body of your request is too large.\r\n", "text/plain");
+        } else if (e instanceof HeaderTooLargeException) {
+            return new Response(HTTPVersion.HTTP11, 431, "Request Header Fields Too Large", "The request line and headers of your request are too large.\r\n", "text/plain");
+        } else if (e instanceof UnsupportedHTTPCommandException) {
+            return new Response(HTTPVersion.HTTP11, 501, "Not Implemented");
+        }
+        return new Response(HTTPVersion.HTTP11, 500, "Server Error", "An internal server error occurred while processing your request. Please try again.\r\n", "text/plain");
+    }
+}
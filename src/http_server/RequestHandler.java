@@ -0,0 +1,35 @@
+package http_server;
+
+import http_datastructures.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Produces the responses to the requests for a route mounted on the {@link Router}, e.g. the static files
+ * or a dynamic endpoint.
+ */
+interface RequestHandler {
+
+    /**
+     * Processes the request and returns the response to it.
+     * @param request The request, of a method this handler is mounted for.
+     * @param parameters The values of the parameters in the route pattern, by name. The part of the path matched by
+     *                   a wildcard is found under the name of the wildcard, or "*" if it has none.
+     * @return the response to the request.
+     * @throws IOException There is a exception when accessing a resource that is requested
+     * @throws IllegalHeaderException The request has an illegal or malformed header
+     * @throws IllegalRequestException The request is illegal or malformed
+     */
+    Response handle(Request request, Map<String, String> parameters) throws IOException, IllegalHeaderException, IllegalRequestException;
+
+    /**
+     * Chooses where the body of a request goes, while the body is still being received.
+     * @param request The request, with its request line and headers.
+     * @param parameters The values of the parameters in the route pattern, by name.
+     * @return The sink to write the body to, or null to keep the body in memory as the content of the request.
+     */
+    default BodySink openBodySink(Request request, Map<String, String> parameters) {
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+package http_server;
+
+import http_datastructures.HTTPDate;
+import http_datastructures.Headers;
+import http_datastructures.HTTPVersion;
+import http_datastructures.Response;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the status line and headers of responses straight into pooled byte buffers,
+ * without building intermediate strings. Common status lines and header names are encoded once.
+ * An encoder keeps per-connection state and is not thread safe.
+ */
+class ResponseEncoder {
+
+    // Buffers for the encoded heads of responses, shared by all connections.
+    private static final BufferPool POOL = new BufferPool(4096, 1024, false);
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] SEPARATOR = {':', ' '};
+    private static final byte[] CONTENT_LENGTH_ZERO = bytes("content-length: 0\r\n");
+    private static final byte[] DATE = bytes("date: ");
+
+    // Status lines for the responses this server sends, indexed by version and status code.
+    private static final byte[][][] STATUS_LINES = new byte[HTTPVersion.values().length][600][];
+
+    static {
+        String[][] statuses = {
+                {"200", "OK"}, {"206", "Partial Content"}, {"303", "See Other"}, {"304", "Not Modified"},
+                {"400", "Bad Request"}, {"404", "Not Found"}, {"405", "Method Not Allowed"},
+                {"412", "Precondition Failed"},
+                {"413", "Payload Too Large"}, {"416", "Range Not Satisfiable"},
+                {"431", "Request Header Fields Too Large"}, {"500", "Server Error"}, {"501", "Not Implemented"},
+                {"503", "Service Unavailable"}};
+        for (HTTPVersion version : HTTPVersion.values()) {
+            for (String[] status : statuses) {
+                STATUS_LINES[version.ordinal()][Integer.parseInt(status[0])] = bytes(version + " " + status[0] + " " + status[1] + "\r\n");
+            }
+        }
+    }
+
+    private ByteBuffer buffer;
+
+    /**
+     * Encode the status line and headers of a response, adding the date header.
+     * The body of the response, if any, is not included: it is written from where it is held, in a gathering
+     * write with the encoded head if it is in memory.
+     * @param response The response to encode.
+     * @return A pooled buffer, ready to be written. Hand it to {@link #release} after writing.
+     */
+    ByteBuffer encode(Response response) {
+        buffer = POOL.acquire();
+
+        writeStatusLine(response);
+        if (response instanceof CachedResponse)
+            put(((CachedResponse) response).getEncodedHeaders());
+
+        Headers headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            String value = headers.value(i);
+            if (value == null)
+                continue;
+            putAscii(headers.name(i));
+            put(SEPARATOR);
+            putAscii(value);
+            put(CRLF);
+        }
+        if (!(response instanceof CachedResponse) && !response.hasHeader("content-length") && response.getBody() == null
+                && !response.hasHeader("transfer-encoding") && response.getStatusCode() != 304 && response.getStatusCode() != 204) {
+            // Without a length the client would wait for the connection to close.
+            put(CONTENT_LENGTH_ZERO);
+        }
+        put(DATE);
+        put(HTTPDate.now());
+        put(CRLF);
+        put(CRLF);
+
+        ByteBuffer encoded = buffer;
+        buffer = null;
+        encoded.flip();
+        return encoded;
+    }
+
+    /**
+     * Return a buffer returned by {@link #encode} to the pool.
+     * @param encoded The buffer, which must no longer be used by the caller.
+     */
+    static void release(ByteBuffer encoded) {
+        POOL.release(encoded);
+    }
+
+    private void writeStatusLine(Response response) {
+        int code = response.getStatusCode();
+        if (code >= 0 && code < 600) {
+            byte[] statusLine = STATUS_LINES[response.getVersion().ordinal()][code];
+            // Only use the constant if the reason phrase is the usual one.
+            if (statusLine != null && statusLine.length == 9 + 4 + response.getStatus().length() + 2
+                    && matches(statusLine, 13, response.getStatus())) {
+                put(statusLine);
+                return;
+            }
+        }
+        putAscii(response.getVersion().toString());
+        putAscii(" ");
+        putAscii(String.valueOf(code));
+        putAscii(" ");
+        putAscii(response.getStatus());
+        put(CRLF);
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (bytes[offset + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putAscii(String s) {
+        int length = s.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            buffer.put(c < 0x100 ? (byte) c : (byte) '?');
+        }
+    }
+
+    /**
+     * Make sure the buffer has room for the given number of bytes, moving to a larger buffer if needed.
+     */
+    private void ensure(int count) {
+        if (buffer.remaining() >= count)
+            return;
+        int capacity = buffer.capacity() * 2;
+        while (capacity - buffer.position() < count)
+            capacity *= 2;
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        POOL.release(buffer);
+        buffer = larger;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,186 @@
+package http_server;
+
+import http_datastructures.Body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The responses of a connection that still have to be written, in the order of their requests.
+ * Flushing sends the heads and in-memory bodies of consecutive responses in a single gathering write,
+ * so the responses to pipelined requests cost one system call instead of several each. Bodies that are not held
+ * in memory, such as files and streams, are transferred to the channel separately.
+ */
+class ResponseQueue {
+
+    // The most buffers handed to a single gathering write (Linux accepts up to 1024).
+    private static final int MAX_GATHER = 64;
+
+    private final ArrayDeque<PendingResponse> responses = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    // Entries of responses that have been written, reused for the next responses.
+    private final ArrayDeque<PendingResponse> spare = new ArrayDeque<>();
+    private final ServerMetrics metrics;
+
+    /**
+     * Initialise an empty queue.
+     * @param metrics The metrics to count the bytes sent and the write latency in.
+     */
+    ResponseQueue(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queue a response for writing.
+     * @param head The encoded head of the response, from {@link ResponseEncoder#encode}.
+     * @param body The body of the response, or null.
+     */
+    void add(ByteBuffer head, Body body) {
+        PendingResponse response = spare.poll();
+        if (response == null)
+            response = new PendingResponse();
+        response.set(head, body, System.nanoTime());
+        responses.add(response);
+    }
+
+    /**
+     * Check whether all responses have been written.
+     * @return true if there is nothing left to write.
+     */
+    boolean isEmpty() {
+        return responses.isEmpty();
+    }
+
+    /**
+     * Get the number of responses that have not been written completely.
+     * @return The number of queued responses.
+     */
+    int size() {
+        return responses.size();
+    }
+
+    /**
+     * Write as much of the queued responses as the channel accepts.
+     * A blocking channel accepts everything, a non-blocking channel may stop accepting when its buffer is full.
+     * @param channel The channel to write to.
+     * @return true if all responses have been written.
+     * @throws IOException Writing to the channel failed.
+     */
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        while (!responses.isEmpty()) {
+            PendingResponse response = responses.peek();
+            if (response.hasBufferedBytes()) {
+                int count = gather();
+                metrics.addBytesSent(channel.write(gather, 0, count));
+                Arrays.fill(gather, 0, count, null);
+                if (response.hasBufferedBytes())
+                    return false;
+            }
+            if (!response.transferBody(channel, metrics))
+                return false;
+            metrics.recordWrite(System.nanoTime() - response.queuedAt);
+            recycle(responses.poll());
+        }
+        return true;
+    }
+
+    /**
+     * Collect the buffers that are left of the responses at the front of the queue, up to the first file body.
+     * @return The number of buffers in the gather array.
+     */
+    private int gather() {
+        int count = 0;
+        for (PendingResponse response : responses) {
+            if (count + 2 > MAX_GATHER)
+                break;
+            if (response.head.hasRemaining())
+                gather[count++] = response.head;
+            if (response.bodyBuffer != null) {
+                if (response.bodyBuffer.hasRemaining())
+                    gather[count++] = response.bodyBuffer;
+            } else if (response.body != null) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop all queued responses, releasing their buffers and bodies.
+     */
+    void clear() {
+        PendingResponse response;
+        while ((response = responses.poll()) != null) {
+            recycle(response);
+        }
+    }
+
+    private void recycle(PendingResponse response) {
+        response.close();
+        if (spare.size() < MAX_GATHER)
+            spare.add(response);
+    }
+
+    /**
+     * A response that has been queued for writing: its encoded head, followed by its body if it has one.
+     */
+    private static class PendingResponse {
+
+        private ByteBuffer head;
+        private Body body;
+        private ByteBuffer bodyBuffer;
+        private long bodyPosition;
+        private long queuedAt;
+
+        void set(ByteBuffer head, Body body, long queuedAt) {
+            this.head = head;
+            this.body = body;
+            this.bodyBuffer = body == null ? null : body.asByteBuffer();
+            this.bodyPosition = 0;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Check whether part of the head, or of a body held in memory, is still to be written.
+         */
+        boolean hasBufferedBytes() {
+            return head.hasRemaining() || (bodyBuffer != null && bodyBuffer.hasRemaining());
+        }
+
+        /**
+         * Transfer as much of a body that is not held in memory as the channel accepts.
+         * @return true if the body has been written completely.
+         */
+        boolean transferBody(GatheringByteChannel channel, ServerMetrics metrics) throws IOException {
+            if (body == null || bodyBuffer != null)
+                return true;
+            while (body.length() < 0 || bodyPosition < body.length()) {
+                long written = body.writeTo(channel, bodyPosition);
+                if (written < 0)
+                    break;
+                if (written == 0)
+                    return false;
+                bodyPosition += written;
+                metrics.addBytesSent(written);
+            }
+            return true;
+        }
+
+        void close() {
+            ResponseEncoder.release(head);
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    // Nothing left to clean up.
+                }
+            }
+            head = null;
+            body = null;
+            bodyBuffer = null;
+        }
+    }
+}
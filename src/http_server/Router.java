@@ -0,0 +1,255 @@
+package http_server;
+
+import http_datastructures.RequestType;
+
+import java.util.*;
+
+/**
+ * Finds the handler for the path of a request among the mounted routes. Routes are patterns such as
+ * "/index.html", "/users/:id/posts" (":id" matches one path segment) and "/files/*path" (a wildcard at the end
+ * matches the rest of the path). The patterns are compiled into a radix tree, which is walked once along the path,
+ * so finding a route takes time in the length of the path rather than in the number of routes.
+ * When several routes match, literal text wins over a parameter, and a parameter over a wildcard.
+ * Routes are mounted at startup, after which the router can be used by many threads at once.
+ */
+class Router {
+
+    /**
+     * The handlers found for a path, and the values of the parameters in their pattern.
+     */
+    static class Route {
+        private final EnumMap<RequestType, RequestHandler> handlers;
+        private final Map<String, String> parameters;
+
+        private Route(EnumMap<RequestType, RequestHandler> handlers, Map<String, String> parameters) {
+            this.handlers = handlers;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Get the handler for a request method.
+         * @param method The method of the request.
+         * @return The handler, or null if the route is not mounted for the method.
+         */
+        RequestHandler getHandler(RequestType method) {
+            return handlers.get(method);
+        }
+
+        /**
+         * Get the methods the route is mounted for, e.g. for the allow header.
+         * @return The methods.
+         */
+        Set<RequestType> getMethods() {
+            return handlers.keySet();
+        }
+
+        /**
+         * Get the values of the parameters in the pattern of the route.
+         * @return The values, by parameter name.
+         */
+        Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+
+    /**
+     * A node of the tree, matching a piece of literal text, a parameter or a wildcard.
+     */
+    private static class Node {
+        // The literal text this node matches, empty for parameter and wildcard nodes.
+        String prefix;
+        // The children matching literal text, with the first characters of their prefixes for a quick look up.
+        Node[] children = new Node[0];
+        char[] indices = new char[0];
+        // The child matching a parameter, and the name of that parameter.
+        Node parameter;
+        String parameterName;
+        // The child matching the rest of the path, and the name of that wildcard.
+        Node wildcard;
+        String wildcardName;
+        // The handlers of the route ending at this node, if any.
+        EnumMap<RequestType, RequestHandler> handlers;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node child(char first) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == first)
+                    return children[i];
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children[children.length - 1] = child;
+            indices[indices.length - 1] = child.prefix.charAt(0);
+        }
+
+        void replaceChild(Node old, Node replacement) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == old)
+                    children[i] = replacement;
+            }
+        }
+    }
+
+    private final Node root = new Node("");
+
+    /**
+     * Mount a handler on a route.
+     * @param method The request method to handle, or null for all methods.
+     * @param pattern The pattern of the paths to handle, starting with "/".
+     * @param handler The handler.
+     * @throws IllegalArgumentException The pattern is malformed, or conflicts with a mounted route.
+     */
+    synchronized void add(RequestType method, String pattern, RequestHandler handler) {
+        if (!pattern.startsWith("/"))
+            throw new IllegalArgumentException("Route patterns start with /: " + pattern);
+        Node node = root;
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if ((c == ':' || c == '*') && pattern.charAt(i - 1) != '/')
+                throw new IllegalArgumentException("Parameters and wildcards must start a path segment: " + pattern);
+            if (c == ':') {
+                int end = pattern.indexOf('/', i);
+                if (end < 0)
+                    end = pattern.length();
+                String name = pattern.substring(i + 1, end);
+                if (name.isEmpty())
+                    throw new IllegalArgumentException("Parameters must have a name: " + pattern);
+                if (node.parameter == null) {
+                    node.parameter = new Node("");
+                    node.parameterName = name;
+                } else if (!node.parameterName.equals(name)) {
+                    throw new IllegalArgumentException("Parameter :" + name + " conflicts with :" + node.parameterName + ": " + pattern);
+                }
+                node = node.parameter;
+                i = end;
+            } else if (c == '*') {
+                String name = pattern.length() == i + 1 ? "*" : pattern.substring(i + 1);
+                if (name.indexOf('/') >= 0)
+                    throw new IllegalArgumentException("Wildcards must end the pattern: " + pattern);
+                if (node.wildcard == null) {
+                    node.wildcard = new Node("");
+                    node.wildcardName = name;
+                } else if (!node.wildcardName.equals(name)) {
+                    throw new IllegalArgumentException("Wildcard *" + name + " conflicts with *" + node.wildcardName + ": " + pattern);
+                }
+                node = node.wildcard;
+                i = pattern.length();
+            } else {
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) != ':' && pattern.charAt(end) != '*')
+                    end++;
+                node = insertLiteral(node, pattern.substring(i, end));
+                i = end;
+            }
+        }
+
+        if (node.handlers == null)
+            node.handlers = new EnumMap<>(RequestType.class);
+        for (RequestType type : method == null ? RequestType.values() : new RequestType[]{method}) {
+            if (node.handlers.containsKey(type) && method != null)
+                throw new IllegalArgumentException("A handler for " + type + " " + pattern + " is mounted already.");
+            node.handlers.put(type, handler);
+        }
+    }
+
+    /**
+     * Add the nodes for a piece of literal text below a node, splitting an existing node where the text diverges.
+     * @return The node at the end of the text.
+     */
+    private static Node insertLiteral(Node node, String literal) {
+        while (!literal.isEmpty()) {
+            Node child = node.child(literal.charAt(0));
+            if (child == null) {
+                Node added = new Node(literal);
+                node.addChild(added);
+                return added;
+            }
+            int common = 0;
+            int max = Math.min(child.prefix.length(), literal.length());
+            while (common < max && child.prefix.charAt(common) == literal.charAt(common))
+                common++;
+            if (common < child.prefix.length()) {
+                // Split the child: the common part becomes a new node above it.
+                Node split = new Node(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                node.replaceChild(child, split);
+                child = split;
+            }
+            node = child;
+            literal = literal.substring(common);
+        }
+        return node;
+    }
+
+    /**
+     * Find the route for a path.
+     * @param path The path of a request, starting with "/", without query.
+     * @return The route, or null if no mounted route matches the path.
+     */
+    Route find(String path) {
+        ArrayList<String> names = new ArrayList<>(4);
+        ArrayList<String> values = new ArrayList<>(4);
+        Node node = match(root, path, 0, names, values);
+        if (node == null)
+            return null;
+        Map<String, String> parameters;
+        if (names.isEmpty()) {
+            parameters = Collections.emptyMap();
+        } else if (names.size() == 1) {
+            parameters = Collections.singletonMap(names.get(0), values.get(0));
+        } else {
+            parameters = new HashMap<>(names.size() * 2);
+            for (int i = 0; i < names.size(); i++) {
+                parameters.put(names.get(i), values.get(i));
+            }
+        }
+        return new Route(node.handlers, parameters);
+    }
+
+    /**
+     * Match the rest of a path below a node, trying literal text before parameters and wildcards.
+     * @return The node of the route that matches, or null if there is none.
+     */
+    private static Node match(Node node, String path, int offset, List<String> names, List<String> values) {
+        if (offset == path.length()) {
+            if (node.handlers != null)
+                return node;
+        } else {
+            Node child = node.child(path.charAt(offset));
+            if (child != null && path.startsWith(child.prefix, offset)) {
+                Node found = match(child, path, offset + child.prefix.length(), names, values);
+                if (found != null)
+                    return found;
+            }
+            if (node.parameter != null) {
+                int end = path.indexOf('/', offset);
+                if (end < 0)
+                    end = path.length();
+                if (end > offset) {
+                    names.add(node.parameterName);
+                    values.add(path.substring(offset, end));
+                    Node found = match(node.parameter, path, end, names, values);
+                    if (found != null)
+                        return found;
+                    names.remove(names.size() - 1);
+                    values.remove(values.size() - 1);
+                }
+            }
+        }
+        if (node.wildcard != null && node.wildcard.handlers != null) {
+            names.add(node.wildcardName);
+            values.add(path.substring(offset));
+            return node.wildcard;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,523 @@
+package http_server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Settings for the HTTP server. Values are read from properties such as the system properties
+ * (e.g. -Dhttp.port=8080), falling back to a default when a property is not set.
+ * <p>
+ * The server itself loads its settings with {@link #load}, from these sources, each overriding the ones before:
+ * a properties file (server.properties in the working directory, or the file named by --config, -Dhttp.config or
+ * HTTP_CONFIG), environment variables named after the settings (HTTP_KEEPALIVE_TIMEOUT for http.keepAlive.timeout),
+ * system properties, and command line arguments (--port=8080 or --http.port=8080).
+ */
+class ServerConfig {
+
+    // The setting naming the configuration file, which is not read from the file itself.
+    static final String CONFIG_FILE = "http.config";
+    private static final String DEFAULT_CONFIG_FILE = "server.properties";
+
+    /**
+     * The ways in which accepted connections can be handed off to a thread.
+     */
+    enum ExecutionMode {
+        /** Start a new platform thread for every connection. */
+        THREAD,
+        /** Run connections on a bounded pool of platform threads with a bounded backlog. */
+        POOL,
+        /** Start a new virtual thread for every connection (requires Java 21 or newer). */
+        VIRTUAL
+    }
+
+    /**
+     * The server implementations that can be selected at startup.
+     */
+    enum Engine {
+        /** Blocking sockets, one thread per connection (see {@link ExecutionMode}). */
+        BLOCKING,
+        /** Non-blocking channels multiplexed over a few selector threads. */
+        NIO
+    }
+
+    private final int port;
+    private final int socketTimeout;
+    private final int acceptBacklog;
+    private final ExecutionMode executionMode;
+    private final int workerThreads;
+    private final int workerQueue;
+    private final int retryAfter;
+    private final Engine engine;
+    private final int eventLoops;
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long maxBodySize;
+    private final long cacheMaxBytes;
+    private final long cacheMaxFileSize;
+    private final long cacheRevalidateInterval;
+    // Files from the minimum size are memory mapped, up to the total size. A total of 0 turns mapping off.
+    private final long mmapMaxBytes;
+    private final long mmapMinFileSize;
+    // Cached text files from this size are gzipped for clients that accept it, a negative size turns this off.
+    private final int compressionMinSize;
+    private final int compressionLevel;
+    // The cache-control header of static files, empty to leave it out.
+    private final String cacheControl;
+    // The media types of the static files, the built in ones and those in the file of the http.mimeTypes setting.
+    private final MimeTypes mimeTypes;
+    // Whether the bytes allocated per request are measured and exposed over JMX, for debugging.
+    private final boolean allocationMonitored;
+    // The path the metrics are served on in the Prometheus text format, empty to not serve them.
+    private final String metricsPath;
+    // The directory the static files are served from.
+    private final String documentRoot;
+    // How often the configuration file is checked for changes, in milliseconds, 0 to not reload it.
+    private final int reloadInterval;
+    // The file the settings were loaded from, or null.
+    private final Path configFile;
+    // The value of every setting, by name, including the defaults.
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    // The threads accepting connections, and whether each has its own listener with SO_REUSEPORT.
+    private final int acceptors;
+    private final boolean reusePort;
+    // Options of the accepted sockets; a buffer size of 0 leaves the size to the operating system.
+    private final boolean tcpNoDelay;
+    private final int sendBuffer;
+    private final int receiveBuffer;
+    // How long a connection may wait for its next request, for the headers of a request once it started, and
+    // between the parts of a body, in milliseconds. Writes time out after the socket timeout.
+    private final int keepAliveTimeout;
+    private final int headerTimeout;
+    private final int bodyTimeout;
+    // The most requests answered on a connection before it is closed, 0 for no limit.
+    private final int maxRequestsPerConnection;
+    // The most open connections, further connections are refused; 0 for no limit.
+    private final int maxConnections;
+    // How long a graceful shutdown waits for the requests in progress, in milliseconds.
+    private final int shutdownTimeout;
+    // Where the access log is written: a file, "-" for standard output, or empty to not log requests.
+    private final String accessLogPath;
+    private final AccessLog.Format accessLogFormat;
+    // The log file is rotated when it would grow beyond this size, keeping this many files in total.
+    private final long accessLogMaxBytes;
+    private final int accessLogFiles;
+    // The entries that can wait for the log writer, further entries are dropped.
+    private final int accessLogBuffer;
+
+    /**
+     * Initialise a configuration from the given properties, e.g. "http.port=8080".
+     * Settings that are not present in the properties get their default value.
+     * @param properties The properties to read the settings from.
+     * @throws IllegalArgumentException One of the settings has an invalid value.
+     */
+    ServerConfig(Properties properties) {
+        this(properties, null);
+    }
+
+    /**
+     * Initialise a configuration from the given properties, which were loaded from a file.
+     * @param properties The properties to read the settings from.
+     * @param configFile The configuration file, or null.
+     * @throws IllegalArgumentException One of the settings has an invalid value.
+     */
+    private ServerConfig(Properties properties, Path configFile) {
+        this.configFile = configFile;
+        this.port = getInt(properties, "http.port", 8000);
+        this.socketTimeout = getInt(properties, "http.timeout", 60000);
+        this.acceptBacklog = getInt(properties, "http.backlog", 50);
+        this.executionMode = getEnum(properties, "http.mode", ExecutionMode.POOL);
+        this.workerThreads = getInt(properties, "http.threads", 200);
+        this.workerQueue = getInt(properties, "http.queue", 1000);
+        this.retryAfter = getInt(properties, "http.retryAfter", 5);
+        this.engine = getEnum(properties, "http.engine", Engine.BLOCKING);
+        this.eventLoops = getInt(properties, "http.eventLoops", Runtime.getRuntime().availableProcessors());
+        this.maxHeaderSize = getInt(properties, "http.maxHeaderSize", 8192);
+        this.maxHeaderCount = getInt(properties, "http.maxHeaderCount", 100);
+        this.maxBodySize = getLong(properties, "http.maxBodySize", 1024L * 1024 * 1024);
+        this.cacheMaxBytes = getLong(properties, "http.cache.maxBytes", 64L * 1024 * 1024);
+        this.cacheMaxFileSize = getLong(properties, "http.cache.maxFileSize", 1024 * 1024);
+        this.cacheRevalidateInterval = getLong(properties, "http.cache.revalidateMillis", 1000);
+        this.mmapMaxBytes = getLong(properties, "http.mmap.maxBytes", 0);
+        this.mmapMinFileSize = getLong(properties, "http.mmap.minFileSize", 1024 * 1024);
+        this.compressionMinSize = getInt(properties, "http.compression.minSize", 1024);
+        this.compressionLevel = getInt(properties, "http.compression.level", 6);
+        this.cacheControl = getString(properties, "http.cacheControl", "no-cache");
+        this.mimeTypes = new MimeTypes(getString(properties, "http.mimeTypes", ""), cacheControl);
+        this.allocationMonitored = getBoolean(properties, "http.debug.allocations", "false");
+        this.metricsPath = getString(properties, "http.metrics.path", "/metrics");
+        this.documentRoot = getString(properties, "http.docroot", System.getProperty("user.dir") + File.separator + "public_html");
+        this.reloadInterval = getInt(properties, "http.config.reloadMillis", 2000);
+        this.acceptors = getInt(properties, "http.acceptors", 1);
+        this.reusePort = getBoolean(properties, "http.reusePort", "false");
+        this.tcpNoDelay = getBoolean(properties, "http.tcpNoDelay", "true");
+        this.sendBuffer = getInt(properties, "http.sendBuffer", 0);
+        this.receiveBuffer = getInt(properties, "http.receiveBuffer", 0);
+        this.keepAliveTimeout = getInt(properties, "http.keepAlive.timeout", socketTimeout);
+        this.headerTimeout = getInt(properties, "http.timeout.header", 10000);
+        this.bodyTimeout = getInt(properties, "http.timeout.body", socketTimeout);
+        this.maxRequestsPerConnection = getInt(properties, "http.keepAlive.maxRequests", 1000);
+        this.maxConnections = getInt(properties, "http.maxConnections", 10000);
+        this.shutdownTimeout = getInt(properties, "http.shutdownTimeout", 30000);
+        this.accessLogPath = getString(properties, "http.accessLog.path", "-");
+        this.accessLogFormat = getEnum(properties, "http.accessLog.format", AccessLog.Format.COMMON);
+        this.accessLogMaxBytes = getLong(properties, "http.accessLog.maxBytes", 64L * 1024 * 1024);
+        this.accessLogFiles = getInt(properties, "http.accessLog.files", 5);
+        this.accessLogBuffer = getInt(properties, "http.accessLog.buffer", 8192);
+
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException("Invalid port: " + port);
+        if (workerThreads < 1)
+            throw new IllegalArgumentException("The worker pool needs at least one thread.");
+        if (workerQueue < 0)
+            throw new IllegalArgumentException("The worker queue can not have a negative size.");
+        if (eventLoops < 1)
+            throw new IllegalArgumentException("The NIO engine needs at least one event loop.");
+        if (maxHeaderSize < 64 || maxHeaderCount < 1)
+            throw new IllegalArgumentException("The header limits are too small to parse any request.");
+        if (maxBodySize < 0)
+            throw new IllegalArgumentException("The maximum body size can not be negative.");
+        if (compressionLevel < 1 || compressionLevel > 9)
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        if (acceptors < 1)
+            throw new IllegalArgumentException("The server needs at least one acceptor.");
+        if (sendBuffer < 0 || receiveBuffer < 0)
+            throw new IllegalArgumentException("The socket buffer sizes can not be negative.");
+        if (socketTimeout <= 0 || keepAliveTimeout <= 0 || headerTimeout <= 0 || bodyTimeout <= 0)
+            throw new IllegalArgumentException("The timeouts must be positive.");
+        if (maxRequestsPerConnection < 0 || maxConnections < 0 || shutdownTimeout < 0)
+            throw new IllegalArgumentException("The connection limits can not be negative.");
+        if (!metricsPath.isEmpty() && !metricsPath.startsWith("/"))
+            throw new IllegalArgumentException("The metrics path must start with a slash: " + metricsPath);
+        if (reloadInterval < 0)
+            throw new IllegalArgumentException("The reload interval can not be negative.");
+        if (documentRoot.isEmpty())
+            throw new IllegalArgumentException("The document root can not be empty.");
+        if (accessLogFiles < 1 || accessLogBuffer < 1 || accessLogBuffer > 1 << 24)
+            throw new IllegalArgumentException("The access log needs at least one file and a buffer of 1 to 16777216 entries.");
+    }
+
+    /**
+     * Read the configuration from the system properties.
+     * @return A configuration with the provided properties, or the defaults for the missing ones.
+     */
+    static ServerConfig fromSystemProperties() {
+        return new ServerConfig(System.getProperties());
+    }
+
+    /**
+     * Load the configuration of the server from its file, the environment, the system properties and the command
+     * line arguments, in that order of precedence.
+     * @param args The command line arguments: --name=value or --name value, where the name of a setting may leave
+     *             out the "http." prefix, e.g. --port=8080 or --config=/etc/http/server.properties.
+     * @return The configuration.
+     * @throws IOException The configuration file could not be read.
+     * @throws IllegalArgumentException An argument or setting is unknown, or has an invalid value.
+     */
+    static ServerConfig load(String[] args) throws IOException {
+        Properties arguments = parseArguments(args);
+        Set<String> known = new ServerConfig(new Properties()).settings.keySet();
+        checkKnown(arguments, known, "on the command line");
+
+        String file = arguments.getProperty(CONFIG_FILE, System.getProperty(CONFIG_FILE, System.getenv(envName(CONFIG_FILE))));
+        Path path = null;
+        if (file != null) {
+            path = Paths.get(file);
+            if (!Files.isRegularFile(path))
+                throw new IllegalArgumentException("The configuration file does not exist: " + file);
+        } else if (Files.isRegularFile(Paths.get(DEFAULT_CONFIG_FILE))) {
+            path = Paths.get(DEFAULT_CONFIG_FILE);
+        }
+
+        Properties properties = new Properties();
+        if (path != null) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+            checkKnown(properties, known, "in " + path);
+        }
+        for (String key : known) {
+            String value = System.getenv(envName(key));
+            if (value != null)
+                properties.setProperty(key, value);
+        }
+        for (String key : known) {
+            String value = System.getProperty(key);
+            if (value != null)
+                properties.setProperty(key, value);
+        }
+        properties.putAll(arguments);
+        properties.remove(CONFIG_FILE);
+        return new ServerConfig(properties, path == null ? null : path.toAbsolutePath());
+    }
+
+    private static Properties parseArguments(String[] args) {
+        Properties arguments = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2)
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            int equals = arg.indexOf('=');
+            String name = arg.substring(2, equals < 0 ? arg.length() : equals);
+            String value;
+            if (equals >= 0) {
+                value = arg.substring(equals + 1);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            arguments.setProperty(name.startsWith("http.") ? name : "http." + name, value);
+        }
+        return arguments;
+    }
+
+    private static void checkKnown(Properties properties, Set<String> known, String source) {
+        for (String key : properties.stringPropertyNames()) {
+            if (!known.contains(key) && !key.equals(CONFIG_FILE))
+                throw new IllegalArgumentException("Unknown setting " + source + ": " + key);
+        }
+    }
+
+    /**
+     * Get the environment variable for a setting: http.keepAlive.timeout is read from HTTP_KEEPALIVE_TIMEOUT.
+     */
+    private static String envName(String key) {
+        return key.replace('.', '_').toUpperCase();
+    }
+
+    private int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        int result;
+        try {
+            result = value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+        settings.put(key, String.valueOf(result));
+        return result;
+    }
+
+    private long getLong(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        long result;
+        try {
+            result = value == null ? defaultValue : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+        settings.put(key, String.valueOf(result));
+        return result;
+    }
+
+    private <E extends Enum<E>> E getEnum(Properties properties, String key, E defaultValue) {
+        String value = properties.getProperty(key);
+        E result;
+        try {
+            result = value == null ? defaultValue : Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+        settings.put(key, result.name());
+        return result;
+    }
+
+    private boolean getBoolean(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key, defaultValue).trim();
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+            throw new IllegalArgumentException("Invalid value for " + key + ", expected true or false: " + value);
+        boolean result = Boolean.parseBoolean(value);
+        settings.put(key, String.valueOf(result));
+        return result;
+    }
+
+    private String getString(Properties properties, String key, String defaultValue) {
+        String result = properties.getProperty(key, defaultValue).trim();
+        settings.put(key, result);
+        return result;
+    }
+
+    /**
+     * Get the value of every setting, including the defaults, e.g. to tell which settings changed.
+     * @return The values by the name of their setting, in a fixed order.
+     */
+    Map<String, String> getSettings() {
+        return Collections.unmodifiableMap(settings);
+    }
+
+    Path getConfigFile() {
+        return configFile;
+    }
+
+    int getReloadInterval() {
+        return reloadInterval;
+    }
+
+    String getDocumentRoot() {
+        return documentRoot;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    int getRetryAfter() {
+        return retryAfter;
+    }
+
+    Engine getEngine() {
+        return engine;
+    }
+
+    int getEventLoops() {
+        return eventLoops;
+    }
+
+    int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    long getCacheMaxFileSize() {
+        return cacheMaxFileSize;
+    }
+
+    long getCacheRevalidateInterval() {
+        return cacheRevalidateInterval;
+    }
+
+    long getMmapMaxBytes() {
+        return mmapMaxBytes;
+    }
+
+    long getMmapMinFileSize() {
+        return mmapMinFileSize;
+    }
+
+    int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    String getCacheControl() {
+        return cacheControl;
+    }
+
+    MimeTypes getMimeTypes() {
+        return mimeTypes;
+    }
+
+    boolean isAllocationMonitored() {
+        return allocationMonitored;
+    }
+
+    String getMetricsPath() {
+        return metricsPath;
+    }
+
+    int getAcceptors() {
+        return acceptors;
+    }
+
+    boolean isReusePort() {
+        return reusePort;
+    }
+
+    boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    int getSendBuffer() {
+        return sendBuffer;
+    }
+
+    int getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+    int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    int getHeaderTimeout() {
+        return headerTimeout;
+    }
+
+    int getBodyTimeout() {
+        return bodyTimeout;
+    }
+
+    int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    String getAccessLogPath() {
+        return accessLogPath;
+    }
+
+    AccessLog.Format getAccessLogFormat() {
+        return accessLogFormat;
+    }
+
+    long getAccessLogMaxBytes() {
+        return accessLogMaxBytes;
+    }
+
+    int getAccessLogFiles() {
+        return accessLogFiles;
+    }
+
+    int getAccessLogBuffer() {
+        return accessLogBuffer;
+    }
+}
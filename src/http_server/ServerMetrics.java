@@ -0,0 +1,231 @@
+package http_server;
+
+import http_datastructures.RequestType;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server, shared by all connections and written in the Prometheus text
+ * format by the metrics endpoint. The counters are striped LongAdders, so that connections on different threads
+ * do not contend when they count, and nothing is allocated once a counter exists.
+ */
+class ServerMetrics {
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+    private static final int STATUSES = MAX_STATUS - MIN_STATUS + 1;
+    private static final RequestType[] METHODS = RequestType.values();
+
+    // Requests by method and status code, with a last row for requests that could not be parsed.
+    // Created when they are first counted.
+    private final AtomicReferenceArray<LongAdder> requests = new AtomicReferenceArray<>((METHODS.length + 1) * STATUSES);
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder accessLogDropped = new LongAdder();
+    // Connections accepted by each acceptor, and those that were refused because the server was full.
+    private final LongAdder[] accepted;
+    private final LongAdder refused = new LongAdder();
+
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram handleLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    // Measures the allocation per request if it is being debugged, or null.
+    private final AllocationMonitor allocations;
+    // The executor of the connection threads of the blocking engine, or null.
+    private volatile ConnectionExecutorMBean executor;
+
+    /**
+     * Initialise the metrics of a server with the given configuration.
+     * @param config The server configuration.
+     */
+    ServerMetrics(ServerConfig config) {
+        this.accepted = new LongAdder[config.getAcceptors()];
+        for (int i = 0; i < accepted.length; i++) {
+            accepted[i] = new LongAdder();
+        }
+        if (config.isAllocationMonitored()) {
+            allocations = new AllocationMonitor();
+            allocations.registerMBean();
+        } else {
+            allocations = null;
+        }
+    }
+
+    /**
+     * Get the monitor of the allocation per request.
+     * @return The monitor, or null if allocation is not being monitored.
+     */
+    AllocationMonitor getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Export the load on the threads that handle the connections, next to the metrics of the connections.
+     * @param executor The executor of the connection threads.
+     */
+    void setExecutor(ConnectionExecutorMBean executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Count a request that has been answered.
+     * @param method The method of the request, or null if the request could not be parsed.
+     * @param status The status code of the response.
+     */
+    void countRequest(RequestType method, int status) {
+        if (status < MIN_STATUS || status > MAX_STATUS)
+            return;
+        int index = (method == null ? METHODS.length : method.ordinal()) * STATUSES + status - MIN_STATUS;
+        LongAdder counter = requests.get(index);
+        if (counter == null) {
+            requests.compareAndSet(index, null, new LongAdder());
+            counter = requests.get(index);
+        }
+        counter.increment();
+    }
+
+    void addBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    void connectionAccepted(int acceptor) {
+        accepted[acceptor].increment();
+    }
+
+    void connectionRefused() {
+        refused.increment();
+    }
+
+    void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Count an access log entry that was dropped because the log writer could not keep up.
+     */
+    void accessLogDropped() {
+        accessLogDropped.increment();
+    }
+
+    /**
+     * Record the time spent parsing a request, from its first byte to its last.
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordParse(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    /**
+     * Record the time spent producing the response to a request.
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordHandle(long nanos) {
+        handleLatency.record(nanos);
+    }
+
+    /**
+     * Record the time from queueing a response until it has been written completely.
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format (version 0.0.4).
+     * @return The metrics.
+     */
+    String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "http_requests_total", "counter", "Requests answered, by method and status code.");
+        for (int m = 0; m <= METHODS.length; m++) {
+            String method = m < METHODS.length ? METHODS[m].name() : "UNKNOWN";
+            for (int s = 0; s < STATUSES; s++) {
+                LongAdder counter = requests.get(m * STATUSES + s);
+                if (counter != null) {
+                    out.append("http_requests_total{method=\"").append(method).append("\",status=\"")
+                            .append(s + MIN_STATUS).append("\"} ").append(counter.sum()).append('\n');
+                }
+            }
+        }
+        counter(out, "http_received_bytes_total", "Bytes received on all connections.", bytesReceived.sum());
+        counter(out, "http_sent_bytes_total", "Bytes sent on all connections.", bytesSent.sum());
+        counter(out, "http_connections_total", "Connections served.", connections.sum());
+        header(out, "http_accepted_connections_total", "counter", "Connections accepted, by acceptor thread.");
+        for (int i = 0; i < accepted.length; i++) {
+            out.append("http_accepted_connections_total{acceptor=\"").append(i).append("\"} ")
+                    .append(accepted[i].sum()).append('\n');
+        }
+        counter(out, "http_refused_connections_total", "Connections refused because the server was full.",
+                refused.sum());
+        counter(out, "http_access_log_dropped_total", "Access log entries dropped because the writer fell behind.",
+                accessLogDropped.sum());
+        header(out, "http_connections_active", "gauge", "Connections currently open.");
+        out.append("http_connections_active ").append(activeConnections.sum()).append('\n');
+
+        summary(out, "http_request_parse_seconds", "Time spent parsing a request.", parseLatency);
+        summary(out, "http_request_handle_seconds", "Time spent producing the response to a request.", handleLatency);
+        summary(out, "http_response_write_seconds", "Time from queueing a response until it was written.", writeLatency);
+
+        ConnectionExecutorMBean executor = this.executor;
+        if (executor != null) {
+            gauge(out, "http_executor_active_threads", "Threads currently handling a connection.",
+                    executor.getActiveConnections());
+            gauge(out, "http_executor_threads", "Threads currently alive to handle connections.",
+                    executor.getThreadCount());
+            gauge(out, "http_executor_queue_depth", "Accepted connections waiting for a free thread.",
+                    executor.getQueueDepth());
+            counter(out, "http_executor_rejected_total", "Connections rejected because no thread was free.",
+                    executor.getRejectedConnections());
+        }
+
+        if (allocations != null) {
+            header(out, "http_allocated_bytes_per_request", "gauge", "Average heap allocation per request.");
+            out.append("http_allocated_bytes_per_request ").append(allocations.getAllocatedBytesPerRequest()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, "summary", help);
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getQuantile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,337 @@
+package http_server;
+
+import http_datastructures.HTTPDate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * In-memory cache of small static files, holding their contents together with their pre-encoded headers.
+ * A file can be cached in several content codings: as it is, and compressed for clients that accept it.
+ * The cache is limited to a total number of bytes, evicting the least recently used files first.
+ * Entries are dropped when the file system reports a change to the file, when a stat at most every
+ * revalidation interval shows a different modification time or size, or when the server writes the file itself.
+ */
+class StaticFileCache {
+
+    /**
+     * A cached file, in one content coding.
+     */
+    static class Entry {
+        final byte[] headers;
+        final byte[] content;
+        final MimeTypes.Type type;
+        // The content coding of the content, or null if it is the file as it is.
+        final String coding;
+        final String etag;
+        final long lastModified;
+        // The size of the file, which differs from the size of the content if the cache compressed it.
+        final long fileSize;
+        volatile long checkedAt;
+        // Set when compressing the file did not make it smaller.
+        volatile boolean incompressible;
+
+        Entry(byte[] headers, byte[] content, MimeTypes.Type type, String coding, String etag, long lastModified,
+              long fileSize, long checkedAt) {
+            this.headers = headers;
+            this.content = content;
+            this.type = type;
+            this.coding = coding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * A file together with the content coding it is cached in, null for the file as it is.
+     */
+    private static class Key {
+        final Path path;
+        final String coding;
+
+        Key(Path path, String coding) {
+            this.path = path;
+            this.coding = coding;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return path.equals(other.path) && Objects.equals(coding, other.coding);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + Objects.hashCode(coding);
+        }
+    }
+
+    // The codings a file can be cached in.
+    private static final String[] CODINGS = {null, ContentEncoding.GZIP, ContentEncoding.BROTLI};
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final long revalidateInterval;
+    private final int compressionLevel;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private WatchService watchService;
+    private final Set<Path> watchedDirectories = new HashSet<>();
+
+    /**
+     * Initialise a cache with the limits from the given configuration.
+     * @param config The server configuration.
+     */
+    StaticFileCache(ServerConfig config) {
+        this.maxBytes = config.getCacheMaxBytes();
+        this.maxFileSize = config.getCacheMaxFileSize();
+        this.revalidateInterval = config.getCacheRevalidateInterval();
+        this.compressionLevel = config.getCompressionLevel();
+        if (maxBytes > 0)
+            startWatching();
+    }
+
+    /**
+     * Look up a file in the cache.
+     * @param file The file to look up.
+     * @return The cached file, or null if the file is not cached or has changed since it was cached.
+     */
+    Entry get(File file) {
+        return get(file, null);
+    }
+
+    /**
+     * Look up a file in the cache, in the given content coding.
+     * @param file The file to look up.
+     * @param coding The content coding, or null for the file as it is.
+     * @return The cached file, or null if the file is not cached in the coding or has changed since it was cached.
+     */
+    Entry get(File file, String coding) {
+        Path path = key(file.toPath());
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(path, coding));
+        }
+        if (entry == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt > revalidateInterval) {
+            if (file.lastModified() != entry.lastModified || file.length() != entry.fileSize) {
+                invalidate(path);
+                return null;
+            }
+            entry.checkedAt = now;
+        }
+        return entry;
+    }
+
+    /**
+     * Read a file into the cache, if it fits.
+     * @param file The file to cache.
+     * @param type The media type of the file.
+     * @return The cached file, or null if the file is too large to cache.
+     * @throws IOException The file could not be read.
+     */
+    Entry load(File file, MimeTypes.Type type) throws IOException {
+        return load(file, type, null);
+    }
+
+    /**
+     * Read a file that is stored in a content coding into the cache, if it fits, e.g. a precompressed copy
+     * of another file.
+     * @param file The file to cache.
+     * @param type The media type of the content, once decoded.
+     * @param coding The content coding the file is stored in, or null if it is stored as it is.
+     * @return The cached file, or null if the file is too large to cache.
+     * @throws IOException The file could not be read.
+     */
+    Entry load(File file, MimeTypes.Type type, String coding) throws IOException {
+        if (maxBytes <= 0)
+            return null;
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (length > maxFileSize || length > maxBytes)
+            return null;
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        if (content.length != length || file.lastModified() != lastModified) {
+            // The file changed while we were reading it, don't cache a mix of both versions.
+            return null;
+        }
+        // The tag identifies the file as it is stored, whether that is compressed or not.
+        Entry entry = newEntry(content, type, coding, EntityTag.of(length, lastModified, null), lastModified,
+                length, System.currentTimeMillis());
+        Path path = key(file.toPath());
+        put(new Key(path, coding), entry);
+        watch(path.getParent());
+        return entry;
+    }
+
+    /**
+     * Get a cached file compressed with gzip, compressing and caching it if that has not been done yet.
+     * @param file The file.
+     * @param entry The file as it is, from the cache.
+     * @return The compressed file, or null if compressing does not make the file smaller.
+     */
+    Entry gzip(File file, Entry entry) {
+        if (entry.incompressible)
+            return null;
+        Entry compressed = get(file, ContentEncoding.GZIP);
+        if (compressed != null && compressed.lastModified == entry.lastModified)
+            return compressed;
+
+        byte[] content = ContentEncoding.gzip(entry.content, compressionLevel);
+        if (content.length >= entry.content.length) {
+            entry.incompressible = true;
+            return null;
+        }
+        compressed = newEntry(content, entry.type, ContentEncoding.GZIP,
+                EntityTag.of(entry.fileSize, entry.lastModified, ContentEncoding.GZIP), entry.lastModified,
+                entry.fileSize, entry.checkedAt);
+        put(new Key(key(file.toPath()), ContentEncoding.GZIP), compressed);
+        return compressed;
+    }
+
+    /**
+     * Create an entry, encoding the headers that describe the content and its validators.
+     */
+    private Entry newEntry(byte[] content, MimeTypes.Type type, String coding, String etag, long lastModified,
+                           long fileSize, long checkedAt) {
+        String headers = "content-length: " + content.length + "\r\n" +
+                "content-type: " + type.getContentType() + "\r\n";
+        if (coding != null)
+            headers += "content-encoding: " + coding + "\r\n";
+        // Whether or not the file has compressed variants, responses for it may differ by accept-encoding.
+        headers += "vary: accept-encoding\r\n" +
+                "accept-ranges: bytes\r\n" +
+                "etag: " + etag + "\r\n" +
+                "last-modified: " + HTTPDate.format(lastModified) + "\r\n";
+        if (!type.getCacheControl().isEmpty())
+            headers += "cache-control: " + type.getCacheControl() + "\r\n";
+        return new Entry(headers.getBytes(StandardCharsets.ISO_8859_1), content, type, coding, etag,
+                lastModified, fileSize, checkedAt);
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            totalBytes -= previous.content.length;
+        totalBytes += entry.content.length;
+
+        // Evict the least recently used files until we are within budget again.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.content.length;
+        }
+    }
+
+    /**
+     * Drop a file from the cache, in all content codings, e.g. because it is about to be written.
+     * @param path The path of the file.
+     */
+    synchronized void invalidate(Path path) {
+        Path normalized = key(path);
+        for (String coding : CODINGS) {
+            Entry entry = entries.remove(new Key(normalized, coding));
+            if (entry != null)
+                totalBytes -= entry.content.length;
+        }
+    }
+
+    /**
+     * Drop all files from the cache.
+     */
+    synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Stop watching the file system for changes, e.g. when the cache is replaced. Files that are looked up after
+     * this are only revalidated by their modification time.
+     */
+    void close() {
+        if (watchService == null)
+            return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private void startWatching() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall back to revalidating the modification time only.
+            return;
+        }
+        Thread watcher = new Thread(this::processEvents, "http-cache-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(Path directory) {
+        if (watchService == null || directory == null)
+            return;
+        synchronized (watchedDirectories) {
+            if (!watchedDirectories.add(directory))
+                return;
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | ClosedWatchServiceException e) {
+                watchedDirectories.remove(directory);
+            }
+        }
+    }
+
+    /**
+     * Drop the files the file system reports as changed, until the server stops.
+     */
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // We missed events, we can no longer tell what changed.
+                    clear();
+                } else {
+                    invalidate(directory.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                synchronized (watchedDirectories) {
+                    watchedDirectories.remove(directory);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package http_server;
+
+import http_datastructures.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves the files in the document root: GET and HEAD send a file, from memory, a memory mapping or a
+ * precompressed copy where possible, PUT replaces a file and POST appends to it. This handler is mounted on the
+ * whole path space of the {@link Router}, so other routes take precedence over it.
+ */
+class StaticFileHandler implements RequestHandler {
+
+    private static final byte[] NEW_LINE = {'\r', '\n'};
+
+    private final StaticFileCache cache;
+    private final MappedFileCache mapped;
+    private final int compressionMinSize;
+    private final int compressionLevel;
+    private final MimeTypes mimeTypes;
+    private final String documentRoot;
+
+    /**
+     * Initialise a handler with the given configuration.
+     * @param config The server configuration.
+     */
+    StaticFileHandler(ServerConfig config) {
+        this.cache = new StaticFileCache(config);
+        this.mapped = new MappedFileCache(config);
+        this.compressionMinSize = config.getCompressionMinSize();
+        this.compressionLevel = config.getCompressionLevel();
+        this.mimeTypes = config.getMimeTypes();
+        this.documentRoot = config.getDocumentRoot();
+    }
+
+    /**
+     * Release the resources of this handler once it has been replaced. Requests that are still being handled by it
+     * complete normally, the mappings of large files they are sending are released when they are done.
+     */
+    void close() {
+        cache.close();
+        mapped.close();
+    }
+
+    /**
+     * Stream the bodies of PUT and POST requests to a temporary file, so they are not held in memory.
+     * The file is moved into place when the request is processed.
+     * @param request The request, with its request line and headers.
+     * @param parameters The path of the file, under "*".
+     * @return The sink to write the body to, or null to keep the body in memory.
+     */
+    @Override
+    public BodySink openBodySink(Request request, Map<String, String> parameters) {
+        if (request.getType() != RequestType.PUT && request.getType() != RequestType.POST)
+            return null;
+        File f = getFile(parameters.get("*"));
+        if (f.isDirectory() || UploadSink.isTemporary(f.getName()))
+            return null;
+        return new UploadSink(f.toPath());
+    }
+
+    /**
+     * Processes a request for a file.
+     * @param request The given request
+     * @param parameters The path of the file relative to the document root, under "*".
+     * @return the response from this server.
+     * @throws IOException There is a exception when accessing the file that is requested
+     * @throws IllegalHeaderException The request has an illegal or malformed header
+     */
+    @Override
+    public Response handle(Request request, Map<String, String> parameters) throws IOException, IllegalHeaderException {
+        String path = parameters.get("*");
+
+        // Redirect requests for / to index.html
+        if (path.isEmpty() && HTTPVersion.HTTP11.equals(request.getVersion())){
+            Response response = new Response(request.getVersion(),303,"See Other");
+            response.addHeader("Location","/index.html");
+            return response;
+        }
+
+        File f = getFile(path);
+        // Uploads in progress are neither served nor written to
+        if (UploadSink.isTemporary(f.getName()))
+            return new Response(request.getVersion(), 404, "Not Found", "The requested file could not be found on this server.\r\n", "text/plain");
+        UploadSink upload = request.getBodySink() instanceof UploadSink ? (UploadSink) request.getBodySink() : null;
+
+        switch (request.getType()){
+            case GET:
+                return fetchPage(request, f, false);
+            case POST:
+                if (f.isDirectory()) {
+                    return new Response(request.getVersion(), 400, "Bad Request", "The requested file could not be written to.\r\n", "text/plain");
+                }
+                if (upload != null) {
+                    upload.appendToTarget(NEW_LINE);
+                } else {
+                    boolean created = f.createNewFile();
+                    try (FileChannel output = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                        if (!created)
+                            write(output, ByteBuffer.wrap(NEW_LINE));
+                        write(output, request.getContentBytes());
+                    }
+                }
+                cache.invalidate(f.toPath());
+                mapped.invalidate(f.toPath());
+                return new Response(request.getVersion(), 200, "OK");
+            case PUT:
+                if (f.isDirectory()) {
+                    return new Response(request.getVersion(), 400, "Bad Request", "The requested file could not be written to.\r\n", "text/plain");
+                }
+                // Only replace the version of the file the client expects, if it says which
+                MimeTypes.Type type = mimeTypes.forFile(f.getName());
+                Response failed = f.isFile() ? checkPreconditions(request, EntityTag.of(f.length(), f.lastModified(), null), f.lastModified(), type)
+                        : checkPreconditions(request, null, -1, type);
+                if (failed != null)
+                    return failed;
+                if (upload != null) {
+                    upload.replaceTarget();
+                } else {
+                    try (FileChannel output = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        write(output, request.getContentBytes());
+                    }
+                }
+                cache.invalidate(f.toPath());
+                mapped.invalidate(f.toPath());
+                Response written = new Response(request.getVersion(), 200, "OK");
+                written.addHeader("etag", EntityTag.of(f.length(), f.lastModified(), null));
+                return written;
+            case HEAD:
+                return fetchPage(request, f, true);
+            default:
+                return new Response(HTTPVersion.HTTP11, 501, "Not Implemented");
+        }
+    }
+
+    /**
+     * Write the bytes of a request body to a file, as they were received.
+     */
+    private static void write(FileChannel output, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining())
+            output.write(bytes);
+    }
+
+    private File getFile(String path) {
+        return new File(documentRoot, path);
+    }
+
+    /**
+     * Returns the response with the content of the given file requested by a given request. If headersOnly is true,
+     * only the headers will be included in the response, not the actual content.
+     * @param request The request which asked for this file.
+     * @param file The file we want to fetch
+     * @param headersOnly A boolean to indicate a HEAD request.
+     * @return a Response with it's content the content of the file, except when headersOnly is true - in this case
+     * only the headers are returned without actual content - or when the preconditions of the request fail - then it
+     * will return a response with a statuscode 304 or 412 (see {@link #checkPreconditions}). If the client accepts it, a
+     * precompressed ".br" or ".gz" copy of the file is sent instead, or else a text file is compressed with gzip: once
+     * if it is cached, or while it is sent if it is too large to cache.
+     * Responses carry the etag and last-modified validators of the content that is sent.
+     * @throws IOException There is a exception when accessing the file that is requested
+     * @throws IllegalHeaderException The request has an illegal or malformed header
+     */
+    public Response fetchPage(Request request, File file, boolean headersOnly) throws IOException, IllegalHeaderException{
+        // Serve small, frequently requested files from memory
+        StaticFileCache.Entry cached = cache.get(file);
+        MimeTypes.Type type = mimeTypes.forFile(file.getName());
+        long lastModified;
+        if (cached != null) {
+            lastModified = cached.lastModified;
+        } else if (file.exists() && !file.isDirectory()) {
+            lastModified = file.lastModified();
+        } else {
+            return new Response(request.getVersion(), 404, "Not Found", "The requested file could not be found on this server.\r\n", "text/plain");
+        }
+
+        // Prefer an up to date precompressed copy of the file that the client accepts
+        String acceptEncoding = request.getHeader("accept-encoding");
+        File sent = file;
+        String coding = null;
+        for (String candidate : ContentEncoding.PRECOMPRESSED) {
+            if (!ContentEncoding.accepts(acceptEncoding, candidate))
+                continue;
+            File precompressed = new File(file.getPath() + ContentEncoding.extension(candidate));
+            StaticFileCache.Entry entry = cache.get(precompressed, candidate);
+            if (entry != null ? entry.lastModified >= lastModified
+                    : precompressed.isFile() && precompressed.lastModified() >= lastModified) {
+                sent = precompressed;
+                coding = candidate;
+                cached = entry;
+                break;
+            }
+        }
+
+        String range = request.getHeader("range");
+        boolean streamed = false;
+        if (coding != null) {
+            if (cached == null)
+                cached = cache.load(sent, type, coding);
+        } else {
+            if (cached == null)
+                cached = cache.load(file, type);
+            boolean compress = compressionMinSize >= 0 && type.isCompressible()
+                    && ContentEncoding.accepts(acceptEncoding, ContentEncoding.GZIP);
+            // Compress text once, the compressed copy is cached with the file
+            if (compress && cached != null && cached.content.length >= compressionMinSize) {
+                StaticFileCache.Entry compressed = cache.gzip(file, cached);
+                if (compressed != null)
+                    cached = compressed;
+            }
+            // Compress text that is too large to cache while it is sent, in chunks. Parts of a file are sent as
+            // they are stored, and HTTP/1.0 has no chunks to mark the end of a body of unknown length.
+            streamed = compress && cached == null && range == null && request.getVersion() == HTTPVersion.HTTP11
+                    && file.length() >= compressionMinSize;
+        }
+
+        // The validators of cached files are computed once, those of other files come from a stat
+        String etag;
+        if (cached != null) {
+            etag = cached.etag;
+            lastModified = cached.lastModified;
+        } else {
+            lastModified = sent.lastModified();
+            etag = EntityTag.of(sent.length(), lastModified, streamed ? ContentEncoding.GZIP : null);
+        }
+        Response failed = checkPreconditions(request, etag, lastModified, type);
+        if (failed != null)
+            return failed;
+
+        // Send only the requested parts, unless the file changed since the client got the other parts
+        if (range != null && !headersOnly && ifRangeMatches(request, etag, lastModified)) {
+            long length = cached != null ? cached.content.length : sent.length();
+            List<long[]> ranges = ByteRanges.parse(range, length);
+            if (ranges != null)
+                return rangeResponse(request, ranges, length, cached, sent, type,
+                        cached != null ? cached.coding : coding, etag, lastModified);
+        }
+
+        if (cached != null)
+            return new CachedResponse(request.getVersion(), cached, headersOnly);
+        if (streamed)
+            return gzipResponse(request, sent, type, etag, lastModified, headersOnly);
+        return fileResponse(request, sent, type, coding, etag, lastModified, headersOnly);
+    }
+
+    /**
+     * Returns a response that sends a file that is not cached to the client, from a shared memory mapping if the
+     * file is large enough to be mapped, or else streamed from the file.
+     * @param request The request which asked for the file.
+     * @param file The file to send.
+     * @param type The media type of the file.
+     * @param coding The content coding the file is stored in, or null if it is stored as it is.
+     * @param etag The entity tag of the file.
+     * @param lastModified The modification time of the file.
+     * @param headersOnly A boolean to indicate a HEAD request.
+     * @return a Response for the file.
+     * @throws IOException There is a exception when mapping the file
+     */
+    private Response fileResponse(Request request, File file, MimeTypes.Type type, String coding, String etag,
+                                  long lastModified, boolean headersOnly) throws IOException {
+        Response response = new Response(request.getVersion(), 200, "OK");
+        String contentType = type.getContentType();
+
+        // Only send headers for a HEAD request, otherwise the file is streamed to the client when the response is written.
+        if (headersOnly){
+            response.setContent("", contentType);
+            response.addHeader("content-length", String.valueOf(file.length()));
+        }else {
+            MappedFileCache.Mapping mapping = mapped.acquire(file);
+            if (mapping != null) {
+                response.setBody(new MappedFileBody(mapped, mapping), contentType);
+            } else {
+                response.setBody(new FileBody(file.toPath(), file.length()), contentType);
+            }
+        }
+        if (coding != null)
+            response.addHeader("content-encoding", coding);
+        response.addHeader("accept-ranges", "bytes");
+        addValidators(response, etag, type);
+        response.addHeader("last-modified", HTTPDate.format(lastModified));
+        return response;
+    }
+
+    /**
+     * Returns a response that compresses a file with gzip while it is sent, for a text file that is too large to
+     * cache. The length of the compressed file is not known in advance, so it is sent in chunked transfer coding.
+     * @param request The request which asked for the file.
+     * @param file The file to send.
+     * @param type The media type of the file.
+     * @param etag The entity tag of the compressed file.
+     * @param lastModified The modification time of the file.
+     * @param headersOnly A boolean to indicate a HEAD request.
+     * @return a Response for the file.
+     * @throws IOException There is a exception when opening the file
+     */
+    private Response gzipResponse(Request request, File file, MimeTypes.Type type, String etag, long lastModified,
+                                  boolean headersOnly) throws IOException {
+        Response response = new Response(request.getVersion(), 200, "OK");
+        if (headersOnly) {
+            response.addHeader("content-type", type.getContentType());
+            response.addHeader("transfer-encoding", "chunked");
+        } else {
+            response.setBody(new StreamBody(ContentEncoding.gzipStream(file.toPath(), compressionLevel)), type.getContentType());
+        }
+        response.addHeader("content-encoding", ContentEncoding.GZIP);
+        addValidators(response, etag, type);
+        response.addHeader("last-modified", HTTPDate.format(lastModified));
+        return response;
+    }
+
+    /**
+     * Check whether the range header of a request applies, following its if-range header.
+     * @param request The request for a part of a file.
+     * @param etag The entity tag of the file.
+     * @param lastModified The modification time of the file.
+     * @return true if there is no if-range header, or it holds the current entity tag or modification date of the file.
+     */
+    private boolean ifRangeMatches(Request request, String etag, long lastModified) {
+        String ifRange = request.getHeader("if-range");
+        if (ifRange == null)
+            return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            return EntityTag.matches(ifRange, etag, false);
+        return HTTPDate.parse(ifRange) == lastModified / 1000;
+    }
+
+    /**
+     * Returns a response with the requested parts of a file: a single part as the body, several parts as a
+     * multipart/byteranges body. Every part is a slice of the cached contents or of the file, so only the requested
+     * bytes are sent.
+     * @param request The request which asked for the file.
+     * @param ranges The requested ranges, from {@link ByteRanges#parse}.
+     * @param length The length of the content.
+     * @param cached The cached content, or null if the file is not cached.
+     * @param file The file to send parts of.
+     * @param type The media type of the file.
+     * @param coding The content coding the file is sent in, or null.
+     * @param etag The entity tag of the file.
+     * @param lastModified The modification time of the file.
+     * @return a response with statuscode 206, or with statuscode 416 if none of the ranges can be satisfied.
+     */
+    private Response rangeResponse(Request request, List<long[]> ranges, long length, StaticFileCache.Entry cached,
+                                   File file, MimeTypes.Type type, String coding, String etag, long lastModified) {
+        if (ranges.isEmpty()) {
+            Response response = new Response(request.getVersion(), 416, "Range Not Satisfiable");
+            response.addHeader("content-range", "bytes */" + length);
+            return response;
+        }
+
+        Response response = new Response(request.getVersion(), 206, "Partial Content");
+        String contentType = type.getContentType();
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setBody(slice(cached, file, range), contentType);
+            response.addHeader("content-range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        } else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            List<Body> parts = new ArrayList<>(ranges.size() * 2 + 1);
+            for (long[] range : ranges) {
+                String partHeaders = "\r\n--" + boundary + "\r\n" +
+                        "content-type: " + contentType + "\r\n" +
+                        "content-range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n";
+                parts.add(new BytesBody(partHeaders.getBytes(StandardCharsets.ISO_8859_1)));
+                parts.add(slice(cached, file, range));
+            }
+            parts.add(new BytesBody(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+            response.setBody(new CompositeBody(parts), "multipart/byteranges; boundary=" + boundary);
+        }
+        if (coding != null)
+            response.addHeader("content-encoding", coding);
+        addValidators(response, etag, type);
+        response.addHeader("last-modified", HTTPDate.format(lastModified));
+        return response;
+    }
+
+    private static Body slice(StaticFileCache.Entry cached, File file, long[] range) {
+        long count = range[1] - range[0] + 1;
+        if (cached != null)
+            return new BytesBody(ByteBuffer.wrap(cached.content, (int) range[0], (int) count));
+        return new FileBody(file.toPath(), range[0], count);
+    }
+
+    /**
+     * Add the headers that let clients revalidate a file to a response.
+     * @param response The response for the file.
+     * @param etag The entity tag of the file.
+     * @param type The media type of the file, which sets its cache-control header.
+     */
+    private void addValidators(Response response, String etag, MimeTypes.Type type) {
+        response.addHeader("vary", "accept-encoding");
+        response.addHeader("etag", etag);
+        if (!type.getCacheControl().isEmpty())
+            response.addHeader("cache-control", type.getCacheControl());
+    }
+
+    /**
+     * Evaluate the preconditions of a request for a file (RFC 7232, section 6): if-match, or if-unmodified-since
+     * when there is no if-match, then if-none-match, or if-modified-since when there is no if-none-match.
+     * @param request The request which asked for the file.
+     * @param etag The entity tag of the file, or null if the file does not exist.
+     * @param lastModified The modification time of the file, in milliseconds since the epoch, or -1 if the file
+     * does not exist.
+     * @param type The media type of the file.
+     * @return a response with statuscode 304 if a GET or HEAD request asks for a file the client already has, a response
+     * with statuscode 412 if another precondition fails, null if the request should be processed.
+     * @throws IllegalHeaderException The date in a header is malformed
+     */
+    private Response checkPreconditions(Request request, String etag, long lastModified, MimeTypes.Type type) throws IllegalHeaderException {
+        boolean safe = request.getType() == RequestType.GET || request.getType() == RequestType.HEAD;
+
+        String ifMatch = request.getHeader("if-match");
+        if (ifMatch != null) {
+            if (!EntityTag.matches(ifMatch, etag, false))
+                return new Response(request.getVersion(), 412, "Precondition Failed");
+        } else if (lastModified >= 0) {
+            long date = parseDateHeader(request, "if-unmodified-since");
+            if (date >= 0 && lastModified / 1000 > date)
+                return new Response(request.getVersion(), 412, "Precondition Failed");
+        }
+
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            if (EntityTag.matches(ifNoneMatch, etag, true))
+                return safe ? notModified(request, etag, type) : new Response(request.getVersion(), 412, "Precondition Failed");
+        } else if (safe && lastModified >= 0) {
+            long date = parseDateHeader(request, "if-modified-since");
+            if (date >= 0 && lastModified / 1000 <= date)
+                return notModified(request, etag, type);
+        }
+        return null;
+    }
+
+    private Response notModified(Request request, String etag, MimeTypes.Type type) {
+        Response response = new Response(request.getVersion(), 304, "Not Modified");
+        addValidators(response, etag, type);
+        return response;
+    }
+
+    /**
+     * Parse a date header of a request.
+     * @return The date in seconds since the epoch, or -1 if the request does not have the header.
+     * @throws IllegalHeaderException The date in the header is malformed
+     */
+    private long parseDateHeader(Request request, String header) throws IllegalHeaderException {
+        String value = request.getHeader(header);
+        if (value == null)
+            return -1;
+        long date = HTTPDate.parse(value);
+        if (date < 0)
+            throw new IllegalHeaderException(header + ": " + value);
+        return date;
+    }
+
+    /**
+     * Returns the extension a file with the given path has. If it has no extension an empty string is returned.
+     * @param path The given path
+     * @return The substring behind the last "/" and behind the last ".", in lower case
+     */
+    String parseExtension(String path){
+        return MimeTypes.extension(path).toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,7 +1,13 @@
 package http_server;
 
-import java.net.ServerSocket;
+import http_datastructures.HTTPVersion;
+import http_datastructures.RequestType;
+import http_datastructures.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Simple HTTP server class. Handles requests multithreaded.
@@ -9,19 +15,72 @@ import java.net.Socket;
 class TCPServer
 {
     public static void main(String argv[]) throws Exception {
-        ServerSocket welcomeSocket = new ServerSocket(8000);
-        while (true)
-        {
-            Socket connectionSocket = welcomeSocket.accept();
-            if (connectionSocket != null) {
-                connectionSocket.setSoTimeout(60000);
-                Handler h = new Handler(connectionSocket);
-                Thread thread = new Thread(h);
-                thread.start();
-            }
+        ServerConfig config;
+        try {
+            config = ServerConfig.load(argv);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid configuration: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        ConfigWatcher watcher = new ConfigWatcher(config, argv);
+        RequestDispatcher dispatcher = new RequestDispatcher(config);
+        ServerMetrics metrics = new ServerMetrics(config);
+        if (!config.getMetricsPath().isEmpty())
+            dispatcher.mount(RequestType.GET, config.getMetricsPath(), new MetricsHandler(metrics));
+        AccessLog accessLog = new AccessLog(config, metrics);
+        accessLog.start();
+        ConnectionManager manager = new ConnectionManager(config);
+        manager.start();
+        watcher.addListener(dispatcher::reconfigure);
+        watcher.addListener(accessLog::reconfigure);
+        watcher.addListener(manager::reconfigure);
+        // Stop gracefully when the process is asked to, then write the access log entries that are still buffered.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            manager.shutdown();
+            accessLog.close();
+        }, "http-shutdown"));
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            NioServer server = new NioServer(config, dispatcher, metrics, accessLog, manager);
+            watcher.addListener(server::reconfigure);
+            watcher.start();
+            server.run();
+            return;
         }
-    }
-}
 
+        ConnectionExecutor executor = new ConnectionExecutor(config);
+        executor.registerMBean();
+        metrics.setExecutor(executor);
+        watcher.start();
 
+        // Sockets from a channel can transfer files to the client without copying them into the heap.
+        Acceptor.start(config, manager, metrics, connectionChannel -> {
+            // The connection manager closes the socket when it times out.
+            Handler h = new Handler(connectionChannel.socket(), dispatcher, watcher.get(), metrics, accessLog, manager);
+            manager.register(h);
+            if (!executor.execute(h)) {
+                manager.closed(h);
+                return false;
+            }
+            return true;
+        });
+    }
 
+    /**
+     * Tell the client of the given connection that the server is overloaded, and close the connection.
+     * @param socket The connection that could not be handled.
+     * @param retryAfter The number of seconds after which the client may try again.
+     */
+    static void reject(Socket socket, int retryAfter) {
+        Response response = new Response(HTTPVersion.HTTP11, 503, "Service Unavailable", "The server is too busy to handle your request. Please try again later.\r\n", "text/plain");
+        response.addHeader("Retry-After", String.valueOf(retryAfter));
+        response.addHeader("Connection", "close");
+        try (Socket s = socket) {
+            OutputStream out = s.getOutputStream();
+            out.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            // The client is gone already, nothing left to tell it.
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package http_server;
+
+import http_datastructures.BodySink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Streams the body of a PUT or POST request into a temporary file next to the file it is meant for.
+ * The body goes from the read buffer of the connection straight to the file, so uploads of any size need no
+ * more memory than that buffer, and a slow disk slows down reading from the client. Once the request has been
+ * handled the temporary file replaces or is appended to the target, so a failed upload leaves the target intact.
+ * The temporary file is in the same directory as the target, so it can be moved into place atomically; the server
+ * does not serve files with its name prefix.
+ */
+class UploadSink implements BodySink {
+
+    // The prefix of the names of temporary files.
+    static final String PREFIX = ".upload-";
+    // The mode of new files, as they would be created with the usual umask of 022.
+    private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private final Path target;
+    private Path temporary;
+    private FileChannel channel;
+    private long size;
+    private IOException failure;
+
+    /**
+     * Initialise a sink for the given file.
+     * @param target The file the body is meant for.
+     */
+    UploadSink(Path target) {
+        this.target = target;
+    }
+
+    @Override
+    public void write(ByteBuffer data) {
+        if (failure != null) {
+            data.position(data.limit());
+            return;
+        }
+        try {
+            if (channel == null) {
+                temporary = Files.createTempFile(target.getParent(), PREFIX, ".tmp");
+                channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+            }
+            while (data.hasRemaining()) {
+                size += channel.write(data);
+            }
+        } catch (IOException e) {
+            // Discard the rest of the body, the failure is reported when the request is handled.
+            failure = e;
+            data.position(data.limit());
+            abort();
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+        channel = null;
+    }
+
+    @Override
+    public void abort() {
+        try {
+            if (channel != null)
+                channel.close();
+            if (temporary != null)
+                Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+        channel = null;
+        temporary = null;
+    }
+
+    /**
+     * Check whether a file is the temporary file of an upload.
+     * @param name The name of the file.
+     * @return true if the name has the prefix of temporary files.
+     */
+    static boolean isTemporary(String name) {
+        return name.startsWith(PREFIX);
+    }
+
+    /**
+     * Replace the target file with the received body. The target keeps its permissions, a new target gets the
+     * default permissions rather than the private ones of the temporary file.
+     * @throws IOException Storing the body failed.
+     */
+    void replaceTarget() throws IOException {
+        checkFailure();
+        if (temporary == null) {
+            Files.write(target, new byte[0]);
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(temporary, Files.exists(target)
+                    ? Files.getPosixFilePermissions(target) : DEFAULT_PERMISSIONS);
+        } catch (UnsupportedOperationException e) {
+            // The file system has no POSIX permissions, the file gets those of its directory.
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        temporary = null;
+    }
+
+    /**
+     * Append the received body to the target file, creating it if needed.
+     * @param separator Bytes to write between the existing contents and the body, if the file already exists.
+     * @throws IOException Storing the body failed.
+     */
+    void appendToTarget(byte[] separator) throws IOException {
+        checkFailure();
+        boolean exists = Files.exists(target);
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            if (exists) {
+                ByteBuffer buffer = ByteBuffer.wrap(separator);
+                while (buffer.hasRemaining())
+                    output.write(buffer);
+            }
+            if (temporary != null) {
+                try (FileChannel input = FileChannel.open(temporary, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < size) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw failure;
+    }
+}